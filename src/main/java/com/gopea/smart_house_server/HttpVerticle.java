@@ -0,0 +1,25 @@
+package com.gopea.smart_house_server;
+
+import com.gopea.smart_house_server.configs.RouteConfiguration;
+import io.vertx.core.Future;
+import io.vertx.reactivex.core.AbstractVerticle;
+import io.vertx.reactivex.ext.web.Router;
+
+import static com.gopea.smart_house_server.configs.InitConfigs.HTTP_PORT;
+
+/**
+ * Serves HTTP requests. Several instances listen on the same port,
+ * Vert.x spreads connections between their event loops.
+ */
+public class HttpVerticle extends AbstractVerticle {
+
+  @Override
+  public void start(Future<Void> startFuture) {
+    Router router = Router.router(vertx);
+    RouteConfiguration.configureRouter(router, vertx);
+    vertx.createHttpServer()
+        .requestHandler(router)
+        .rxListen(HTTP_PORT)
+        .subscribe(ign -> startFuture.complete(), startFuture::fail);
+  }
+}
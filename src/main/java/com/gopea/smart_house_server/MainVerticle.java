@@ -1,27 +1,38 @@
 package com.gopea.smart_house_server;
 
-import com.gopea.smart_house_server.configs.RouteConfiguration;
+import com.gopea.smart_house_server.data_base.Storages;
+import com.gopea.smart_house_server.devices.DeviceReconnector;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.reactivex.core.AbstractVerticle;
-import io.vertx.reactivex.ext.web.Router;
 
-import static com.gopea.smart_house_server.configs.InitConfigs.HTTP_PORT;
 import static com.gopea.smart_house_server.configs.InitConfigs.setupInitConfig;
+import static com.gopea.smart_house_server.data_base.Storages.DEVICE_STORAGE;
 
 
+/**
+ * Prepares shared state and deploys {@link HttpVerticle} instances, one per core by default.
+ * All of them use the same Vertx and storages.
+ */
 public class MainVerticle extends AbstractVerticle {
 
+  public static final String HTTP_INSTANCES_KEY = "http_instances";
+
   @Override
   public void start(Future<Void> startFuture) throws Exception {
-    super.start(startFuture);
-    Router router = Router.router(vertx);
-    RouteConfiguration.configureRouter(router, vertx);
+    Storages.setVertx(vertx);
+    int instances = config().getInteger(HTTP_INSTANCES_KEY, Runtime.getRuntime().availableProcessors());
     setupInitConfig(vertx)
-        .andThen(vertx
-            .createHttpServer()
-            .requestHandler(router)
-            .rxListen(HTTP_PORT))
+        .andThen(DEVICE_STORAGE.load())
+        .andThen(vertx.rxDeployVerticle(HttpVerticle.class.getName(), new DeploymentOptions().setInstances(instances)))
+        // The verticle is started once devices are loaded and the server is deployed
+        .doOnSuccess(deploymentId -> startFuture.complete())
         .doOnError(startFuture::fail)
-        .subscribe();
+        .ignoreElement()
+        // The server is ready before devices are connected, they are disconnected until then
+        .andThen(DEVICE_STORAGE.getDevices())
+        .flatMapCompletable(DeviceReconnector.RECONNECTOR::reconnect)
+        .subscribe(() -> {
+        }, Throwable::printStackTrace);
   }
-}
\ No newline at end of file
+}
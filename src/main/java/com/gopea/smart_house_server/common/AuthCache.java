@@ -0,0 +1,118 @@
+package com.gopea.smart_house_server.common;
+
+import com.gopea.smart_house_server.routers.users.UserType;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of successful authentications. Keys are digests of credentials, so passwords aren't kept.
+ * Entries expire after the ttl, the least recently used entry is dropped when the cache is full.
+ */
+public class AuthCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+    public static final long DEFAULT_TTL_MILLIS = 60_000;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry> entries;
+    private long generation;
+
+    public AuthCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+    }
+
+    public AuthCache(int maxSize, long ttlMillis) {
+        this(maxSize, ttlMillis, System::currentTimeMillis);
+    }
+
+    AuthCache(int maxSize, long ttlMillis, LongSupplier clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size should be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > AuthCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param credentialsDigest Digest of credentials.
+     * @return The cached entry or null if there is no one or it's expired.
+     */
+    public synchronized Entry get(String credentialsDigest) {
+        Entry entry = entries.get(credentialsDigest);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= clock.getAsLong()) {
+            entries.remove(credentialsDigest);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return Number which is changed by every invalidation.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Puts the entry if there were no invalidations after the generation was got,
+     * so a result of a check which raced with a password change isn't cached.
+     */
+    public synchronized void put(String credentialsDigest, String username, UserType userType, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        entries.put(credentialsDigest, new Entry(username, userType, clock.getAsLong() + ttlMillis));
+    }
+
+    /**
+     * Drops all entries of the user, e.g. after the password is changed.
+     */
+    public synchronized void invalidate(String username) {
+        generation++;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().username.equals(username)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public static final class Entry {
+        private final String username;
+        private final UserType userType;
+        private final long expiresAt;
+
+        private Entry(String username, UserType userType, long expiresAt) {
+            this.username = username;
+            this.userType = userType;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public UserType getUserType() {
+            return userType;
+        }
+    }
+}
@@ -19,21 +19,40 @@ public class Helpers {
     public static final String USER_TYPE_HEADER = "User-Type";
     public static final String USERNAME_HEADER = "Username";
     public static final String PASSWORDS_FILE = "passwords.json";
+    public static final String DEVICES_JOURNAL_FILE = "devices.journal";
+    public static final String DEVICES_SNAPSHOT_FILE = "devices.snapshot";
+    /**
+     * System property with the directory of the device journal and snapshot, the working directory by default.
+     */
+    public static final String DATA_DIR_PROPERTY = "smart_house.data_dir";
     public static final String INTERNAL_STATUS_KEY = "internal_status";
     public static final String EXTERNAL_STATUS_KEY = "rest_status";
     public static final String MESSAGE_KEY = "message";
     public static final String BASE_BAD_REQUEST_MESSAGE = "Bad request";
 
-    public static byte[] encryptPassword(String password) {
-        MessageDigest messageDigest = null;
+    /**
+     * MessageDigest isn't thread safe, so every thread reuses its own instance.
+     */
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
         try {
-            messageDigest = MessageDigest.getInstance("SHA-256");
-            messageDigest.update(password.getBytes());
-            return messageDigest.digest();
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
         }
         return null;
+    });
+
+    public static byte[] encryptPassword(String password) {
+        return sha256(password.getBytes());
+    }
+
+    public static byte[] sha256(byte[] data) {
+        MessageDigest messageDigest = SHA_256.get();
+        if (messageDigest == null) {
+            return null;
+        }
+        messageDigest.reset();
+        return messageDigest.digest(data);
     }
 
     public static void handleError(RoutingContext context, Throwable error) {
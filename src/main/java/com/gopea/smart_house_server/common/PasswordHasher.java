@@ -0,0 +1,163 @@
+package com.gopea.smart_house_server.common;
+
+import io.reactivex.Single;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.WorkerExecutor;
+import org.apache.commons.codec.binary.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Hashes and verifies passwords with PBKDF2-HMAC-SHA256. The work runs on a dedicated worker pool,
+ * so a burst of logins neither blocks event loops nor takes workers used by other blocking code.
+ * Hashes are kept as "pbkdf2-sha256$iterations$salt$hash", plain SHA-256 hashes written
+ * before are still verified and reported by {@link #needsUpgrade(byte[])}.
+ */
+public class PasswordHasher {
+
+    public static final String POOL_NAME = "password-hasher";
+    public static final int DEFAULT_POOL_SIZE = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int DEFAULT_ITERATIONS = 100_000;
+    public static final int DEFAULT_SALT_LENGTH = 16;
+    public static final int DEFAULT_KEY_LENGTH = 32;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final String SEPARATOR = "$";
+    private static final int LEGACY_LENGTH = 32;
+
+    private final Supplier<Vertx> vertx;
+    private final int poolSize;
+    private final int iterations;
+    private final int saltLength;
+    private final int keyLength;
+    private final SecureRandom random;
+    private WorkerExecutor executor;
+
+    public PasswordHasher(Vertx vertx) {
+        this(() -> vertx);
+    }
+
+    /**
+     * @param vertx Supplier of Vertx, the pool is created on the first use.
+     */
+    public PasswordHasher(Supplier<Vertx> vertx) {
+        this(vertx, DEFAULT_POOL_SIZE, DEFAULT_ITERATIONS, DEFAULT_SALT_LENGTH, DEFAULT_KEY_LENGTH);
+    }
+
+    public PasswordHasher(Vertx vertx, int poolSize, int iterations, int saltLength, int keyLength) {
+        this(() -> vertx, poolSize, iterations, saltLength, keyLength);
+    }
+
+    /**
+     * @param poolSize   Number of threads which hash passwords.
+     * @param iterations Cost of a hash, the more the slower is guessing.
+     * @param saltLength Length of a random salt in bytes.
+     * @param keyLength  Length of a hash in bytes.
+     */
+    public PasswordHasher(Supplier<Vertx> vertx, int poolSize, int iterations, int saltLength, int keyLength) {
+        if (poolSize <= 0 || iterations <= 0 || saltLength <= 0 || keyLength <= 0) {
+            throw new IllegalArgumentException("Pool size, iterations, salt and key length should be positive");
+        }
+        this.vertx = vertx;
+        this.poolSize = poolSize;
+        this.iterations = iterations;
+        this.saltLength = saltLength;
+        this.keyLength = keyLength;
+        this.random = new SecureRandom();
+    }
+
+    /**
+     * @return Hash of the password with a new salt and the current cost.
+     */
+    public Single<byte[]> hash(String password) {
+        return execute(() -> {
+            byte[] salt = new byte[saltLength];
+            random.nextBytes(salt);
+            return format(iterations, salt, pbkdf2(password, salt, iterations, keyLength));
+        });
+    }
+
+    /**
+     * @param hash Hash made by {@link #hash(String)} or a plain SHA-256 one.
+     * @return true if the password matches the hash.
+     */
+    public Single<Boolean> verify(String password, byte[] hash) {
+        return execute(() -> {
+            if (hash == null) {
+                return false;
+            }
+            String[] parts = parse(hash);
+            if (parts == null) {
+                return hash.length == LEGACY_LENGTH
+                        && MessageDigest.isEqual(Helpers.encryptPassword(password), hash);
+            }
+            byte[] expected = Base64.decodeBase64(parts[3]);
+            byte[] actual = pbkdf2(password, Base64.decodeBase64(parts[2]), Integer.parseInt(parts[1]), expected.length);
+            return MessageDigest.isEqual(expected, actual);
+        });
+    }
+
+    /**
+     * @return true if the hash is a plain SHA-256 one or was made with other cost parameters.
+     */
+    public boolean needsUpgrade(byte[] hash) {
+        String[] parts = parse(hash);
+        return parts == null
+                || Integer.parseInt(parts[1]) != iterations
+                || Base64.decodeBase64(parts[3]).length != keyLength;
+    }
+
+    private <T> Single<T> execute(Callable<T> callable) {
+        return getExecutor().<T>rxExecuteBlocking(future -> {
+            try {
+                future.complete(callable.call());
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false).toSingle();
+    }
+
+    private synchronized WorkerExecutor getExecutor() {
+        if (executor == null) {
+            executor = vertx.get().createSharedWorkerExecutor(POOL_NAME, poolSize);
+        }
+        return executor;
+    }
+
+    private static byte[] format(int iterations, byte[] salt, byte[] key) {
+        return String.join(SEPARATOR, PREFIX, Integer.toString(iterations),
+                Base64.encodeBase64String(salt), Base64.encodeBase64String(key)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Prefix, iterations, salt and key of the hash or null if it isn't a PBKDF2 one.
+     */
+    private static String[] parse(byte[] hash) {
+        if (hash == null || hash.length == LEGACY_LENGTH) {
+            return null;
+        }
+        String[] parts = new String(hash, StandardCharsets.UTF_8).split("\\" + SEPARATOR);
+        if (parts.length != 4 || !PREFIX.equals(parts[0]) || !parts[1].matches("\\d{1,9}")) {
+            return null;
+        }
+        return parts;
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations, int keyLength)
+            throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength * 8);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
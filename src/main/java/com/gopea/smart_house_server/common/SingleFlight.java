@@ -0,0 +1,56 @@
+package com.gopea.smart_house_server.common;
+
+import io.reactivex.Single;
+import io.reactivex.subjects.SingleSubject;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces concurrent calls with the same key: while a call is in flight,
+ * other callers with the key get its result instead of starting their own one.
+ * The key is released when the call finishes, so later callers start a new call.
+ *
+ * @param <K> Type of keys.
+ * @param <V> Type of results.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Single<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param key  Key of the call.
+     * @param call Call which is started if there is no one in flight with the key.
+     * @return Result of the call, it's shared between all callers which joined it.
+     */
+    public Single<V> execute(K key, Callable<Single<V>> call) {
+        return Single.defer(() -> {
+            Single<V> existing = inFlight.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            SingleSubject<V> result = SingleSubject.create();
+            existing = inFlight.putIfAbsent(key, result);
+            if (existing != null) {
+                return existing;
+            }
+            Single.defer(call)
+                    .subscribe(value -> {
+                        inFlight.remove(key, result);
+                        result.onSuccess(value);
+                    }, error -> {
+                        inFlight.remove(key, result);
+                        result.onError(error);
+                    });
+            return result;
+        });
+    }
+
+    /**
+     * @return Number of calls in flight.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,198 @@
+package com.gopea.smart_house_server.common;
+
+import com.gopea.smart_house_server.routers.users.UserType;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Issues and verifies signed tokens. A token is a payload with the user, its type, expiry and a random id
+ * followed by HMAC-SHA256 of the payload, so it's verified in memory without the user storage.
+ * Revoked tokens are kept until they expire, tokens of a user could be revoked all at once, such a revocation
+ * is kept until all tokens issued before it expire.
+ */
+public class TokenService {
+
+    public static final long DEFAULT_TTL_MILLIS = 60 * 60 * 1000;
+    public static final TokenService TOKEN_SERVICE = new TokenService(generateSecret(), DEFAULT_TTL_MILLIS);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String USERNAME_KEY = "u";
+    private static final String USER_TYPE_KEY = "t";
+    private static final String ISSUED_AT_KEY = "i";
+    private static final String EXPIRES_AT_KEY = "e";
+    private static final String TOKEN_ID_KEY = "n";
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final SecureRandom random;
+    /**
+     * Mac isn't thread safe, so every thread uses its own instance.
+     */
+    private final ThreadLocal<Mac> mac;
+    private final Map<String, Long> revokedTokens;
+    private final Map<String, Long> revokedUsers;
+
+    public TokenService(byte[] secret, long ttlMillis) {
+        this(secret, ttlMillis, System::currentTimeMillis);
+    }
+
+    TokenService(byte[] secret, long ttlMillis, LongSupplier clock) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.random = new SecureRandom();
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac instance = Mac.getInstance(ALGORITHM);
+                instance.init(key);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.revokedTokens = new ConcurrentHashMap<>();
+        this.revokedUsers = new ConcurrentHashMap<>();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public String issue(String username, UserType userType) {
+        byte[] tokenId = new byte[16];
+        random.nextBytes(tokenId);
+        long now = clock.getAsLong();
+        JsonObject payload = new JsonObject()
+                .put(USERNAME_KEY, username)
+                .put(USER_TYPE_KEY, userType.toString().toLowerCase())
+                .put(ISSUED_AT_KEY, now)
+                .put(EXPIRES_AT_KEY, now + ttlMillis)
+                .put(TOKEN_ID_KEY, Base64.encodeBase64URLSafeString(tokenId));
+        String encodedPayload = Base64.encodeBase64URLSafeString(payload.encode().getBytes(StandardCharsets.UTF_8));
+        return encodedPayload + "." + Base64.encodeBase64URLSafeString(sign(encodedPayload));
+    }
+
+    /**
+     * @return Username and its type or null if the token is invalid, expired or revoked.
+     */
+    public Pair<String, UserType> verify(String token) {
+        JsonObject payload = getPayload(token);
+        if (payload == null) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        String username = payload.getString(USERNAME_KEY);
+        UserType userType = UserType.getEnum(payload.getString(USER_TYPE_KEY));
+        Long expiresAt = payload.getLong(EXPIRES_AT_KEY);
+        Long issuedAt = payload.getLong(ISSUED_AT_KEY);
+        if (username == null || userType == null || expiresAt == null || issuedAt == null || expiresAt <= now) {
+            return null;
+        }
+        Long userRevokedAt = revokedUsers.get(username);
+        if (userRevokedAt != null && userRevokedAt + ttlMillis <= now) {
+            // All tokens issued before the revocation have expired
+            revokedUsers.remove(username, userRevokedAt);
+            userRevokedAt = null;
+        }
+        if ((userRevokedAt != null && issuedAt <= userRevokedAt)
+                || revokedTokens.containsKey(payload.getString(TOKEN_ID_KEY, ""))) {
+            return null;
+        }
+        return new ImmutablePair<>(username, userType);
+    }
+
+    /**
+     * Revokes the token, it's remembered until it expires.
+     *
+     * @return false if the token is invalid.
+     */
+    public boolean revoke(String token) {
+        JsonObject payload = getPayload(token);
+        if (payload == null) {
+            return false;
+        }
+        removeExpired();
+        revokedTokens.put(payload.getString(TOKEN_ID_KEY, ""), payload.getLong(EXPIRES_AT_KEY, 0L));
+        return true;
+    }
+
+    /**
+     * Revokes all tokens of the user issued until now, e.g. after the password is changed.
+     */
+    public void revokeUser(String username) {
+        removeExpired();
+        revokedUsers.put(username, clock.getAsLong());
+    }
+
+    /**
+     * @return Number of users which have revoked tokens that haven't expired yet.
+     */
+    int getRevokedUsersCount() {
+        return revokedUsers.size();
+    }
+
+    private void removeExpired() {
+        long now = clock.getAsLong();
+        Iterator<Long> iterator = revokedTokens.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() <= now) {
+                iterator.remove();
+            }
+        }
+        // Tokens of a user revoked a ttl ago have expired by themselves
+        iterator = revokedUsers.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() + ttlMillis <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return The payload if the signature is valid, otherwise null.
+     */
+    private JsonObject getPayload(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return null;
+        }
+        String encodedPayload = token.substring(0, dot);
+        byte[] signature = Base64.decodeBase64(token.substring(dot + 1));
+        if (!MessageDigest.isEqual(sign(encodedPayload), signature)) {
+            return null;
+        }
+        try {
+            return new JsonObject(new String(Base64.decodeBase64(encodedPayload), StandardCharsets.UTF_8));
+        } catch (DecodeException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(String data) {
+        return mac.get().doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] generateSecret() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+}
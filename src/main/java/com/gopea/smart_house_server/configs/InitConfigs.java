@@ -24,6 +24,7 @@ public class InitConfigs {
           }
           return vertx.fileSystem().rxWriteFile(Helpers.PASSWORDS_FILE,
               Buffer.newInstance(new JsonObject().put(USERS_KEY, new JsonObject()).toBuffer()))
+              .andThen(Storages.USER_STORAGE.reload())
               .andThen(Storages.USER_STORAGE.addUser(ADMIN))
               .flatMapCompletable(json -> {
                 if (!InternalStatus.valueOf(json.getString(INTERNAL_STATUS_KEY)).isOk) {
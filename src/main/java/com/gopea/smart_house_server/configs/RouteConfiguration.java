@@ -7,12 +7,12 @@ import com.gopea.smart_house_server.routers.DeviceRouter;
 import com.gopea.smart_house_server.routers.HelloRouter;
 import com.gopea.smart_house_server.routers.Routable;
 import com.gopea.smart_house_server.routers.StaticContentRouter;
+import com.gopea.smart_house_server.routers.TokenRouter;
 import com.gopea.smart_house_server.routers.users.UserRouter;
 import io.vertx.reactivex.core.Vertx;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.handler.BodyHandler;
 import io.vertx.reactivex.ext.web.handler.CookieHandler;
-import io.vertx.reactivex.ext.web.handler.SessionHandler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,6 +25,7 @@ public final class RouteConfiguration {
 
   public static final List<Routable> ROUTABLES = new ArrayList<>(Arrays.asList(
       new AuthRouter(),
+      new TokenRouter(),
       new HelloRouter(),
       new StaticContentRouter(),
       new UserRouter(),
@@ -4,13 +4,9 @@ import com.gopea.smart_house_server.common.InternalStatus;
 import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.devices.DeviceAction;
 import com.gopea.smart_house_server.examples.StandardDeviceExample;
-import io.reactivex.Maybe;
 import io.reactivex.Single;
 import io.vertx.core.json.JsonObject;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-
 import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.MESSAGE_KEY;
@@ -19,10 +15,7 @@ import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_
 
 public class BaseTestDeviceConnector extends Connector {
 
-  public Deque<JsonObject> messagesFromDevice = new ArrayDeque<>();
-  public static final int MAX_REPEAT = 3;
-
-  private boolean isConnected = false;
+  private volatile boolean isConnected = false;
 
   private final StandardDeviceExample example;
 
@@ -31,8 +24,13 @@ public class BaseTestDeviceConnector extends Connector {
     this.example = example;
   }
 
+  public BaseTestDeviceConnector(String host, int port, StandardDeviceExample example, RetryPolicy retryPolicy) {
+    super(host, port, retryPolicy);
+    this.example = example;
+  }
+
   @Override
-  public Single<JsonObject> sendMessage(JsonObject message) {
+  protected Single<JsonObject> doSendMessage(JsonObject message) {
     JsonObject errorResponse = new JsonObject()
         .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
         .put(EXTERNAL_STATUS_KEY, StatusCode.UNAVAILABLE.getStatusCode())
@@ -40,33 +38,20 @@ public class BaseTestDeviceConnector extends Connector {
     return isConnected()
         .flatMap(isCon -> {
           if (isCon) {
-            return Single.just(example.getResponse(message))
-                .retry(MAX_REPEAT)
-                .onErrorResumeNext(ign -> Single.just(errorResponse));
+            return Single.fromCallable(() -> example.getResponse(message));
           }
           return Single.just(errorResponse);
         });
   }
 
-  @Override
-  public Maybe<JsonObject> getMessage() {
-    return isConnected()
-        .flatMapMaybe(isCon -> {
-          if (isCon) {
-            return hasMessage()
-                .flatMapMaybe(has -> has ? Maybe.just(messagesFromDevice.poll()) : Maybe.empty());
-          }
-          return Maybe.just(new JsonObject()
-              .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
-              .put(EXTERNAL_STATUS_KEY, StatusCode.UNAVAILABLE.getStatusCode())
-              .put(MESSAGE_KEY, "Device is disconnected"));
-        });
-
-  }
-
-  @Override
-  public Single<Boolean> hasMessage() {
-    return Single.just(!messagesFromDevice.isEmpty());
+  /**
+   * Sends the message from the device as if the device initiated it. The message is lost if the device
+   * isn't connected.
+   */
+  public void sendEvent(JsonObject message) {
+    if (isConnected) {
+      publishEvent(message);
+    }
   }
 
   @Override
@@ -1,16 +1,34 @@
 package com.gopea.smart_house_server.connectors;
 
-import io.reactivex.Maybe;
+import com.gopea.smart_house_server.devices.DeviceAction;
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.Flowable;
 import io.reactivex.Single;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
 import io.vertx.core.json.JsonObject;
 
+import static com.gopea.smart_house_server.common.Helpers.getEnum;
+import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_KEY;
+
 public abstract class Connector implements Connectible {
 
+  public static final int MAX_BUFFERED_EVENTS = 1024;
+
   protected final String host;
   protected final int port;
+  private final FlowableProcessor<JsonObject> events;
+  private final RetryPolicy retryPolicy;
+
   protected Connector(String host, int port){
+    this(host, port, new RetryPolicy());
+  }
+
+  protected Connector(String host, int port, RetryPolicy retryPolicy) {
     this.host = host;
     this.port = port;
+    this.events = PublishProcessor.<JsonObject>create().toSerialized();
+    this.retryPolicy = retryPolicy;
   }
 
   /**
@@ -31,11 +49,60 @@ public abstract class Connector implements Connectible {
     return host;
   }
 
-  public abstract Single<JsonObject> sendMessage(JsonObject message);
+  /**
+   * Sends the message with the retry policy of the connector: failed reads and messages which weren't sent
+   * are retried with backoff and the response is unavailable at once while the device fails too often.
+   */
+  public Single<JsonObject> sendMessage(JsonObject message) {
+    return retryPolicy.execute(() -> doSendMessage(message), isRead(message));
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
 
-  public abstract Maybe<JsonObject> getMessage();
+  /**
+   * Sends the message once, a failure of the transport should be an error. It should be
+   * {@link RequestNotSentException} if the message surely didn't reach the device, only then a command is retried.
+   */
+  protected abstract Single<JsonObject> doSendMessage(JsonObject message);
+
+  /**
+   * Messages which the device sends by itself. They are emitted as they arrive, nothing is done while
+   * the device is quiet. A slow subscriber gets a bounded buffer of the latest messages.
+   *
+   * @return Hot stream of messages from the device.
+   */
+  public Flowable<JsonObject> events() {
+    return events.onBackpressureBuffer(MAX_BUFFERED_EVENTS,
+        () -> System.out.println(String.format("Event of %s:%d is dropped, the subscriber is slow", host, port)),
+        BackpressureOverflowStrategy.DROP_OLDEST);
+  }
 
-  public abstract Single<Boolean> hasMessage();
+  /**
+   * Emits the message which the device sent by itself to subscribers of {@link #events()}.
+   */
+  protected void publishEvent(JsonObject message) {
+    events.onNext(message);
+  }
 
   public abstract Single<Boolean> isConnected();
+
+  /**
+   * Frees what the connector holds once its device is deleted, e.g. connections. Nothing by default.
+   */
+  public void release() {
+  }
+
+  /**
+   * Reads don't change the device, so they could be sent again whatever happened to the first one.
+   */
+  private static boolean isRead(JsonObject message) {
+    Object action = message.getValue(COMMAND_ACTION_KEY);
+    if (!(action instanceof String)) {
+      return false;
+    }
+    DeviceAction deviceAction = getEnum((String) action, DeviceAction.class);
+    return DeviceAction.GET_DATA.equals(deviceAction) || DeviceAction.GET_STATUS.equals(deviceAction);
+  }
 }
@@ -3,6 +3,14 @@ package com.gopea.smart_house_server.connectors;
 public final class Connectors {
 
   public static final String COMMAND_ACTION_KEY = "command_action";
+  /**
+   * Id which a request is tagged with and the device copies to its response.
+   */
+  public static final String CORRELATION_ID_KEY = "correlation_id";
+  /**
+   * Id of the device behind a gateway which a frame on a shared connection is sent to or came from.
+   */
+  public static final String DEVICE_ID_KEY = "device_id";
 
   private Connectors() {
     throw new UnsupportedOperationException();
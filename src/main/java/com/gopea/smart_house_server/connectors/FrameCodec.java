@@ -0,0 +1,63 @@
+package com.gopea.smart_house_server.connectors;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Length-prefixed json framing: every frame is a 4 byte big-endian length followed by a json object in UTF-8.
+ * An instance decodes frames from chunks of a stream, it isn't thread safe.
+ */
+final class FrameCodec implements Handler<Buffer> {
+
+  static final int HEADER_SIZE = 4;
+  static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+  private final Consumer<JsonObject> frames;
+  private Buffer pending;
+
+  /**
+   * @param frames Handler of decoded frames.
+   */
+  FrameCodec(Consumer<JsonObject> frames) {
+    this.frames = frames;
+    this.pending = Buffer.buffer();
+  }
+
+  static Buffer encode(JsonObject message) {
+    byte[] body = message.encode().getBytes(StandardCharsets.UTF_8);
+    return Buffer.buffer(HEADER_SIZE + body.length)
+        .appendInt(body.length)
+        .appendBytes(body);
+  }
+
+  /**
+   * Decodes all complete frames of the chunk, the rest is kept till next chunks.
+   *
+   * @throws DecodeException If a frame has invalid length or isn't a json object, the stream can't be decoded further.
+   */
+  @Override
+  public void handle(Buffer chunk) {
+    pending.appendBuffer(chunk);
+    int offset = 0;
+    while (pending.length() - offset >= HEADER_SIZE) {
+      int length = pending.getInt(offset);
+      if (length <= 0 || length > MAX_FRAME_SIZE) {
+        throw new DecodeException(String.format("Invalid frame length %d", length));
+      }
+      if (pending.length() - offset - HEADER_SIZE < length) {
+        break;
+      }
+      String json = pending.getString(offset + HEADER_SIZE, offset + HEADER_SIZE + length, StandardCharsets.UTF_8.name());
+      offset += HEADER_SIZE + length;
+      frames.accept(new JsonObject(json));
+    }
+    if (offset > 0) {
+      pending = pending.getBuffer(offset, pending.length());
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package com.gopea.smart_house_server.connectors;
+
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.gopea.smart_house_server.connectors.Connectors.CORRELATION_ID_KEY;
+
+/**
+ * Pipelines requests to a device: every request is tagged with a correlation id, up to maxOutstanding
+ * requests wait for responses at once and responses are matched in any order. Requests over the limit
+ * wait in the order they came and are written as soon as a response or a timeout frees a slot.
+ */
+final class PendingRequests {
+
+  /**
+   * Where tagged requests are written, e.g. a connection.
+   */
+  @FunctionalInterface
+  interface Channel {
+    void write(JsonObject frame);
+  }
+
+  private final int maxOutstanding;
+  private final AtomicLong nextId;
+  private final Map<Long, Entry> outstanding;
+  /**
+   * Requests which wait for a slot, guarded by the instance.
+   */
+  private final Deque<Entry> waiting;
+  private int usedSlots;
+
+  PendingRequests(int maxOutstanding) {
+    if (maxOutstanding <= 0) {
+      throw new IllegalArgumentException("Max outstanding requests should be positive");
+    }
+    this.maxOutstanding = maxOutstanding;
+    this.nextId = new AtomicLong();
+    this.outstanding = new ConcurrentHashMap<>();
+    this.waiting = new ArrayDeque<>();
+  }
+
+  /**
+   * @param timeoutMillis How long the request could wait for a slot and a response together.
+   * @return Response with the correlation id of the request, the id is removed.
+   */
+  Single<JsonObject> submit(JsonObject message, Channel channel, long timeoutMillis) {
+    return Single.<JsonObject>create(emitter -> {
+      Entry entry = new Entry(nextId.incrementAndGet(), message, channel, emitter);
+      emitter.setCancellable(() -> cancel(entry));
+      boolean send;
+      synchronized (this) {
+        send = usedSlots < maxOutstanding;
+        if (send) {
+          usedSlots++;
+          entry.sent = true;
+        } else {
+          waiting.add(entry);
+        }
+      }
+      if (send) {
+        send(entry);
+      }
+    }).timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Completes the request which the frame answers.
+   *
+   * @return false if the frame has no correlation id, so it isn't a response. Late responses are dropped.
+   */
+  boolean complete(JsonObject frame) {
+    Object id = frame.getValue(CORRELATION_ID_KEY);
+    if (!(id instanceof Number)) {
+      return false;
+    }
+    frame.remove(CORRELATION_ID_KEY);
+    Entry entry = outstanding.get(((Number) id).longValue());
+    if (entry != null) {
+      finish(entry, frame, null);
+    }
+    return true;
+  }
+
+  /**
+   * Fails requests which were written to the channel, e.g. after the connection is closed.
+   */
+  void fail(Channel channel, Throwable error) {
+    for (Entry entry : outstanding.values()) {
+      if (entry.channel == channel) {
+        finish(entry, null, error);
+      }
+    }
+  }
+
+  /**
+   * @return Number of requests which were written to the channel and wait for responses.
+   */
+  int outstanding(Channel channel) {
+    int count = 0;
+    for (Entry entry : outstanding.values()) {
+      if (entry.channel == channel) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  int outstanding() {
+    return outstanding.size();
+  }
+
+  synchronized int waiting() {
+    return waiting.size();
+  }
+
+  private void send(Entry entry) {
+    outstanding.put(entry.id, entry);
+    // The request could be cancelled while it was taken from the queue
+    if (entry.done.get()) {
+      outstanding.remove(entry.id);
+      return;
+    }
+    try {
+      entry.channel.write(entry.message.copy().put(CORRELATION_ID_KEY, entry.id));
+    } catch (Exception e) {
+      finish(entry, null, new RequestNotSentException(e.getMessage(), e));
+    }
+  }
+
+  private void finish(Entry entry, JsonObject response, Throwable error) {
+    if (!entry.done.compareAndSet(false, true)) {
+      return;
+    }
+    outstanding.remove(entry.id);
+    release();
+    if (error != null) {
+      entry.emitter.tryOnError(error);
+    } else {
+      entry.emitter.onSuccess(response);
+    }
+  }
+
+  private void cancel(Entry entry) {
+    if (!entry.done.compareAndSet(false, true)) {
+      return;
+    }
+    synchronized (this) {
+      if (!entry.sent) {
+        waiting.remove(entry);
+        return;
+      }
+    }
+    outstanding.remove(entry.id);
+    release();
+  }
+
+  /**
+   * Gives the freed slot to the next waiting request.
+   */
+  private void release() {
+    Entry next;
+    synchronized (this) {
+      next = waiting.poll();
+      if (next == null) {
+        usedSlots--;
+        return;
+      }
+      next.sent = true;
+    }
+    send(next);
+  }
+
+  private static final class Entry {
+    private final long id;
+    private final JsonObject message;
+    private final Channel channel;
+    private final SingleEmitter<JsonObject> emitter;
+    private final AtomicBoolean done;
+    /**
+     * The request has a slot, guarded by the pending requests.
+     */
+    private boolean sent;
+
+    private Entry(long id, JsonObject message, Channel channel, SingleEmitter<JsonObject> emitter) {
+      this.id = id;
+      this.message = message;
+      this.channel = channel;
+      this.emitter = emitter;
+      this.done = new AtomicBoolean();
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package com.gopea.smart_house_server.connectors;
+
+import java.io.IOException;
+
+/**
+ * The request failed before it was written, e.g. the connection couldn't be opened or was closed,
+ * so the device surely didn't get it and it could be sent again.
+ */
+public class RequestNotSentException extends IOException {
+
+  public RequestNotSentException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
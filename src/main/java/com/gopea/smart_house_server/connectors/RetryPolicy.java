@@ -0,0 +1,229 @@
+package com.gopea.smart_house_server.connectors;
+
+import com.gopea.smart_house_server.common.InternalStatus;
+import com.gopea.smart_house_server.configs.StatusCode;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.MESSAGE_KEY;
+
+/**
+ * Retries failed calls to a device with exponential backoff and full jitter and breaks the circuit
+ * while the device keeps failing. The breaker opens when failureRateThreshold of the last windowSize calls
+ * failed and calls fail fast while it's open. After openMillis one probe call is let through (half-open),
+ * the breaker closes if it succeeds and opens again otherwise.
+ * A call fails if it ends with an error, responses of the device are successes whatever they say.
+ * A failed call is retried only if sending it again is safe: it's idempotent or the request wasn't sent
+ * (see {@link RequestNotSentException}). Other failures, e.g. a command which timed out, are only counted.
+ */
+public class RetryPolicy {
+
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  public static final long DEFAULT_BASE_DELAY_MILLIS = 50;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 2_000;
+  public static final int DEFAULT_WINDOW_SIZE = 10;
+  public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+  public static final long DEFAULT_OPEN_MILLIS = 10_000;
+  public static final String CIRCUIT_OPEN_MESSAGE = "Device is unavailable, it failed too often";
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int maxRetries;
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+  private final int windowSize;
+  private final double failureRateThreshold;
+  private final long openMillis;
+  /**
+   * Whether the last calls failed, a ring buffer guarded by the policy.
+   */
+  private final boolean[] window;
+  private int calls;
+  private int next;
+  private int failures;
+  private State state;
+  private long openedAt;
+  private boolean probing;
+
+  public RetryPolicy() {
+    this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_WINDOW_SIZE,
+        DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+  }
+
+  /**
+   * @param maxRetries           Max number of retries of a failed call, 0 to call once.
+   * @param baseDelayMillis      Max delay before the first retry, it doubles with every retry.
+   * @param maxDelayMillis       Max delay before a retry.
+   * @param windowSize           Number of the last calls the failure rate is counted by.
+   * @param failureRateThreshold Part of failed calls in the window which opens the breaker, in (0, 1].
+   * @param openMillis           How long calls fail fast before the probe call.
+   */
+  public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, int windowSize,
+                     double failureRateThreshold, long openMillis) {
+    if (maxRetries < 0 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis || windowSize <= 0
+        || failureRateThreshold <= 0 || failureRateThreshold > 1 || openMillis < 0) {
+      throw new IllegalArgumentException("Invalid retry policy");
+    }
+    this.maxRetries = maxRetries;
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.windowSize = windowSize;
+    this.failureRateThreshold = failureRateThreshold;
+    this.openMillis = openMillis;
+    this.window = new boolean[windowSize];
+    this.state = State.CLOSED;
+  }
+
+  /**
+   * Makes the idempotent call, see {@link #execute(Callable, boolean)}.
+   */
+  public Single<JsonObject> execute(Callable<Single<JsonObject>> call) {
+    return execute(call, true);
+  }
+
+  /**
+   * Makes the call, retries it if it fails and it's safe, and counts the result. The probe call isn't retried.
+   *
+   * @param idempotent Whether the call could be repeated after any failure, e.g. a read.
+   * @return Response of the device, unavailable response if the call failed or the breaker is open.
+   */
+  public Single<JsonObject> execute(Callable<Single<JsonObject>> call, boolean idempotent) {
+    return Single.defer(() -> {
+      Boolean probe = acquire();
+      if (probe == null) {
+        return Single.just(unavailable(CIRCUIT_OPEN_MESSAGE));
+      }
+      AtomicInteger attempt = new AtomicInteger();
+      return Single.defer(call)
+          .retryWhen(errors -> errors.flatMap(error -> {
+            int retry = attempt.getAndIncrement();
+            if (probe || retry >= maxRetries || !(idempotent || error instanceof RequestNotSentException)) {
+              return Flowable.error(error);
+            }
+            return Flowable.timer(getDelayMillis(retry), TimeUnit.MILLISECONDS);
+          }))
+          .map(response -> {
+            onResult(true, probe);
+            return response;
+          })
+          .onErrorReturn(error -> {
+            onResult(false, probe);
+            return unavailable(String.format("Device is unavailable: %s", error.getMessage()));
+          })
+          .doOnDispose(() -> {
+            if (probe) {
+              release();
+            }
+          });
+    });
+  }
+
+  /**
+   * @return false while the breaker is open and calls fail fast.
+   */
+  public synchronized boolean isCallPermitted() {
+    switch (state) {
+      case OPEN:
+        return System.currentTimeMillis() - openedAt >= openMillis;
+      case HALF_OPEN:
+        return !probing;
+      default:
+        return true;
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Closes the breaker and forgets the last calls, e.g. after the device is connected again.
+   */
+  public synchronized void reset() {
+    changeState(State.CLOSED);
+  }
+
+  /**
+   * @return Random delay before the retry, up to baseDelayMillis * 2^retry but not more than maxDelayMillis.
+   */
+  long getDelayMillis(int retry) {
+    long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 30));
+    return ThreadLocalRandom.current().nextLong(cap + 1);
+  }
+
+  /**
+   * @return null if the call should fail fast, true if it's the probe call.
+   */
+  private synchronized Boolean acquire() {
+    if (state == State.OPEN) {
+      if (System.currentTimeMillis() - openedAt < openMillis) {
+        return null;
+      }
+      state = State.HALF_OPEN;
+    }
+    if (state == State.HALF_OPEN) {
+      if (probing) {
+        return null;
+      }
+      probing = true;
+      return true;
+    }
+    return false;
+  }
+
+  private synchronized void release() {
+    probing = false;
+  }
+
+  private synchronized void onResult(boolean success, boolean probe) {
+    if (probe) {
+      probing = false;
+      changeState(success ? State.CLOSED : State.OPEN);
+      return;
+    }
+    // Calls which were started before the breaker opened aren't counted
+    if (state != State.CLOSED) {
+      return;
+    }
+    if (calls < windowSize) {
+      calls++;
+    } else if (window[next]) {
+      failures--;
+    }
+    window[next] = !success;
+    if (!success) {
+      failures++;
+    }
+    next = (next + 1) % windowSize;
+    if (calls == windowSize && failures >= failureRateThreshold * windowSize) {
+      changeState(State.OPEN);
+    }
+  }
+
+  private void changeState(State newState) {
+    state = newState;
+    openedAt = System.currentTimeMillis();
+    calls = 0;
+    next = 0;
+    failures = 0;
+  }
+
+  private static JsonObject unavailable(String message) {
+    return new JsonObject()
+        .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
+        .put(EXTERNAL_STATUS_KEY, StatusCode.UNAVAILABLE.getStatusCode())
+        .put(MESSAGE_KEY, message);
+  }
+}
@@ -0,0 +1,55 @@
+package com.gopea.smart_house_server.connectors;
+
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.net.NetSocket;
+
+import java.util.function.Consumer;
+
+/**
+ * Keep-alive connection to a device which writes and reads json frames, requests and responses are
+ * matched by {@link PendingRequests}.
+ */
+final class TcpConnection implements PendingRequests.Channel {
+
+  private final NetSocket socket;
+  private volatile boolean closed;
+
+  /**
+   * @param frames  Handler of every frame which the device sent.
+   * @param onClose Is called once the connection is closed.
+   */
+  TcpConnection(NetSocket socket, Consumer<JsonObject> frames, Consumer<TcpConnection> onClose) {
+    this.socket = socket;
+    FrameCodec codec = new FrameCodec(frames);
+    socket.handler(chunk -> {
+      try {
+        codec.handle(chunk);
+      } catch (DecodeException e) {
+        System.out.println(String.format("Close connection to %s: %s", socket.remoteAddress(), e.getMessage()));
+        socket.close();
+      }
+    });
+    socket.exceptionHandler(error -> socket.close());
+    socket.closeHandler(ign -> {
+      closed = true;
+      onClose.accept(this);
+    });
+  }
+
+  @Override
+  public void write(JsonObject frame) {
+    if (closed) {
+      throw new IllegalStateException("Connection is closed");
+    }
+    socket.write(FrameCodec.encode(frame));
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  void close() {
+    socket.close();
+  }
+}
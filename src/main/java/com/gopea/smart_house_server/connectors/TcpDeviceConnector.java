@@ -0,0 +1,301 @@
+package com.gopea.smart_house_server.connectors;
+
+import com.gopea.smart_house_server.common.InternalStatus;
+import com.gopea.smart_house_server.configs.StatusCode;
+import com.gopea.smart_house_server.devices.DeviceAction;
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.net.NetClient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.MESSAGE_KEY;
+import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
+import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_KEY;
+import static com.gopea.smart_house_server.connectors.Connectors.DEVICE_ID_KEY;
+
+/**
+ * Connector to a device over TCP. Messages are json objects in length-prefixed frames (see {@link FrameCodec}),
+ * requests are pipelined (see {@link PendingRequests}): up to maxInFlight of them wait for responses at once
+ * and a slow request doesn't hold back others.
+ * Connections are kept open and pooled: a request goes to the connection with the fewest requests in flight,
+ * a new connection is opened only when all of them are busy and the pool isn't full.
+ * Devices behind the same gateway could share its connection instead (see {@link TcpGateways}),
+ * then frames are tagged with the device id.
+ */
+public class TcpDeviceConnector extends Connector {
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 2;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+  public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 5_000;
+
+  private final Supplier<Vertx> vertx;
+  private final int maxConnections;
+  private final long requestTimeoutMillis;
+  private final List<TcpConnection> connections;
+  private final PendingRequests pending;
+  private final TcpGateways gateways;
+  private final String deviceId;
+  private NetClient client;
+  /**
+   * Shared connection which the device uses, guarded by the connector.
+   */
+  private TcpGateway gateway;
+  /**
+   * Connection which is being opened, guarded by the connector.
+   */
+  private Single<TcpConnection> opening;
+  private volatile boolean connected;
+
+  public TcpDeviceConnector(Vertx vertx, String host, int port) {
+    this(() -> vertx, host, port, DEFAULT_MAX_CONNECTIONS, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+  }
+
+  public TcpDeviceConnector(Supplier<Vertx> vertx, String host, int port, int maxConnections, long requestTimeoutMillis) {
+    this(vertx, host, port, maxConnections, DEFAULT_MAX_IN_FLIGHT, requestTimeoutMillis);
+  }
+
+  /**
+   * @param vertx                Supplier of Vertx, the client is created on the first connection.
+   * @param maxConnections       Max number of connections to the device.
+   * @param maxInFlight          Max number of requests which wait for responses of the device at once.
+   * @param requestTimeoutMillis How long the device could answer a request or accept a connection.
+   */
+  public TcpDeviceConnector(Supplier<Vertx> vertx, String host, int port, int maxConnections, int maxInFlight,
+                            long requestTimeoutMillis) {
+    this(vertx, null, null, host, port, maxConnections, maxInFlight, requestTimeoutMillis);
+  }
+
+  /**
+   * Connector to a device behind a gateway, the connection to the gateway is shared by all its devices.
+   *
+   * @param deviceId Id of the device which the gateway routes frames by.
+   */
+  public TcpDeviceConnector(TcpGateways gateways, String deviceId, String host, int port, int maxInFlight,
+                            long requestTimeoutMillis) {
+    this(null, gateways, deviceId, host, port, 1, maxInFlight, requestTimeoutMillis);
+    if (gateways == null || deviceId == null) {
+      throw new IllegalArgumentException("Gateways and device id are required");
+    }
+  }
+
+  private TcpDeviceConnector(Supplier<Vertx> vertx, TcpGateways gateways, String deviceId, String host, int port,
+                             int maxConnections, int maxInFlight, long requestTimeoutMillis) {
+    super(host, port);
+    if (maxConnections <= 0 || maxInFlight <= 0 || requestTimeoutMillis <= 0) {
+      throw new IllegalArgumentException("Max connections, max in flight and request timeout should be positive");
+    }
+    this.vertx = vertx;
+    this.gateways = gateways;
+    this.deviceId = deviceId;
+    this.maxConnections = maxConnections;
+    this.requestTimeoutMillis = requestTimeoutMillis;
+    this.connections = new CopyOnWriteArrayList<>();
+    this.pending = new PendingRequests(maxInFlight);
+  }
+
+  @Override
+  protected Single<JsonObject> doSendMessage(JsonObject message) {
+    if (!connected) {
+      return Single.just(unavailable("Device is disconnected"));
+    }
+    return request(message);
+  }
+
+  @Override
+  public Single<Boolean> isConnected() {
+    return Single.just(connected);
+  }
+
+  @Override
+  public Single<JsonObject> connect() {
+    return request(new JsonObject().put(COMMAND_ACTION_KEY, DeviceAction.CONNECT.toString().toLowerCase()))
+        .onErrorReturn(TcpDeviceConnector::unavailable)
+        .map(response -> {
+          connected = isInternalStatusOk(response);
+          if (!connected) {
+            releaseGateway();
+          }
+          return response;
+        });
+  }
+
+  @Override
+  public Single<JsonObject> disconnect() {
+    if (connections.isEmpty() && !hasGateway()) {
+      connected = false;
+      return Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK));
+    }
+    return request(new JsonObject().put(COMMAND_ACTION_KEY, DeviceAction.DISCONNECT.toString().toLowerCase()))
+        .onErrorReturn(TcpDeviceConnector::unavailable)
+        .map(response -> {
+          if (isInternalStatusOk(response)) {
+            connected = false;
+            for (TcpConnection connection : connections) {
+              connection.close();
+            }
+            releaseGateway();
+          }
+          return response;
+        });
+  }
+
+  /**
+   * Closes connections without asking the device, a shared connection is closed once no device uses it.
+   */
+  @Override
+  public void release() {
+    connected = false;
+    for (TcpConnection connection : connections) {
+      connection.close();
+    }
+    releaseGateway();
+  }
+
+  /**
+   * @return Number of open connections to the device.
+   */
+  public int getConnectionsCount() {
+    synchronized (this) {
+      if (gateway != null) {
+        return gateway.isOpen() ? 1 : 0;
+      }
+    }
+    return connections.size();
+  }
+
+  /**
+   * @return Number of requests which wait for a response and which wait to be sent.
+   */
+  public int getRequestsCount() {
+    return pending.outstanding() + pending.waiting();
+  }
+
+  /**
+   * Sends the message and returns the response of the device, it fails if the connection fails
+   * or the device doesn't answer in time. It fails with {@link RequestNotSentException} if the message
+   * wasn't written.
+   */
+  private Single<JsonObject> request(JsonObject message) {
+    JsonObject frame = gateways == null ? message : message.copy().put(DEVICE_ID_KEY, deviceId);
+    return getConnection()
+        .onErrorResumeNext(error -> Single.error(new RequestNotSentException(
+            String.format("Can't connect: %s", error.getMessage()), error)))
+        .flatMap(connection -> pending.submit(frame, connection, requestTimeoutMillis))
+        .map(TcpDeviceConnector::withDefaultStatus);
+  }
+
+  private Single<TcpConnection> getConnection() {
+    return Single.defer(() -> {
+      synchronized (this) {
+        if (gateways != null) {
+          return getGateway().getConnection();
+        }
+        TcpConnection leastBusy = null;
+        for (TcpConnection connection : connections) {
+          if (!connection.isClosed()
+              && (leastBusy == null || pending.outstanding(connection) < pending.outstanding(leastBusy))) {
+            leastBusy = connection;
+          }
+        }
+        if (leastBusy != null
+            && (pending.outstanding(leastBusy) == 0 || opening != null || connections.size() >= maxConnections)) {
+          return Single.just(leastBusy);
+        }
+        // Requests which come while the connection is being opened wait for it
+        if (opening == null) {
+          opening = openConnection()
+              .doOnEvent((connection, error) -> {
+                synchronized (this) {
+                  opening = null;
+                }
+              })
+              .cache();
+        }
+        return opening;
+      }
+    });
+  }
+
+  private Single<TcpConnection> openConnection() {
+    return getClient().rxConnect(port, host)
+        .map(socket -> {
+          TcpConnection connection = new TcpConnection(socket, this::receive, this::onClose);
+          connections.add(connection);
+          return connection;
+        });
+  }
+
+  private void receive(JsonObject frame) {
+    // Frames without a correlation id are messages which the device sent by itself
+    if (!pending.complete(frame)) {
+      publishEvent(withDefaultStatus(frame));
+    }
+  }
+
+  /**
+   * Devices send statuses only when something goes wrong, a message without a status is ok.
+   */
+  private static JsonObject withDefaultStatus(JsonObject message) {
+    if (!message.containsKey(INTERNAL_STATUS_KEY)) {
+      message.put(INTERNAL_STATUS_KEY, InternalStatus.OK);
+    }
+    return message;
+  }
+
+  private void onClose(TcpConnection connection) {
+    connections.remove(connection);
+    pending.fail(connection, new IOException("Connection is closed"));
+    // The device closed the last connection, so it's gone until it's connected again
+    if (connections.isEmpty()) {
+      connected = false;
+    }
+  }
+
+  private synchronized TcpGateway getGateway() {
+    if (gateway == null) {
+      gateway = gateways.acquire(host, port);
+      gateway.register(deviceId, this::receive, this::onClose);
+    }
+    return gateway;
+  }
+
+  private synchronized boolean hasGateway() {
+    return gateway != null;
+  }
+
+  private synchronized void releaseGateway() {
+    if (gateway != null) {
+      gateway.unregister(deviceId);
+      gateways.release(host, port);
+      gateway = null;
+    }
+  }
+
+  private synchronized NetClient getClient() {
+    if (client == null) {
+      client = vertx.get().createNetClient(new NetClientOptions()
+          .setTcpKeepAlive(true)
+          .setConnectTimeout((int) Math.min(requestTimeoutMillis, Integer.MAX_VALUE)));
+    }
+    return client;
+  }
+
+  private static JsonObject unavailable(Throwable error) {
+    return unavailable(String.format("Device is unavailable: %s", error.getMessage()));
+  }
+
+  private static JsonObject unavailable(String message) {
+    return new JsonObject()
+        .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
+        .put(EXTERNAL_STATUS_KEY, StatusCode.UNAVAILABLE.getStatusCode())
+        .put(MESSAGE_KEY, message);
+  }
+}
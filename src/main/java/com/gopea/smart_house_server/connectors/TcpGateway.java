@@ -0,0 +1,152 @@
+package com.gopea.smart_house_server.connectors;
+
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.net.NetClient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_KEY;
+import static com.gopea.smart_house_server.connectors.Connectors.DEVICE_ID_KEY;
+
+/**
+ * One connection to a host:port which is shared by all devices behind it. Frames are routed to devices
+ * by their device id, frames without it belong to the gateway, e.g. answers to heartbeats.
+ * The connection is opened on the first request and is closed if nothing came for three heartbeats.
+ */
+final class TcpGateway {
+
+  static final String HEARTBEAT_ACTION = "heartbeat";
+  static final int MISSED_HEARTBEATS = 3;
+
+  private final String host;
+  private final int port;
+  private final Vertx vertx;
+  private final NetClient client;
+  private final long heartbeatMillis;
+  private final Map<String, Route> routes;
+  /**
+   * Number of connectors which use the gateway, guarded by the registry.
+   */
+  int references;
+  private volatile TcpConnection connection;
+  private volatile long lastSeen;
+  /**
+   * Connection which is being opened, guarded by the gateway.
+   */
+  private Single<TcpConnection> opening;
+
+  TcpGateway(String host, int port, Vertx vertx, NetClient client, long heartbeatMillis) {
+    this.host = host;
+    this.port = port;
+    this.vertx = vertx;
+    this.client = client;
+    this.heartbeatMillis = heartbeatMillis;
+    this.routes = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @param frames  Handler of frames which came from the device, the device id is removed.
+   * @param onClose Is called with the connection once it's closed.
+   */
+  void register(String deviceId, Consumer<JsonObject> frames, Consumer<TcpConnection> onClose) {
+    routes.put(deviceId, new Route(frames, onClose));
+  }
+
+  void unregister(String deviceId) {
+    routes.remove(deviceId);
+  }
+
+  /**
+   * @return The open connection, a new one is opened if there is none.
+   */
+  synchronized Single<TcpConnection> getConnection() {
+    TcpConnection current = connection;
+    if (current != null && !current.isClosed()) {
+      return Single.just(current);
+    }
+    // Devices which send while the connection is being opened wait for it
+    if (opening == null) {
+      opening = client.rxConnect(port, host)
+          .map(socket -> {
+            TcpConnection opened = new TcpConnection(socket, this::receive, this::onClose);
+            onOpen(opened);
+            return opened;
+          })
+          .doOnEvent((opened, error) -> {
+            synchronized (this) {
+              opening = null;
+            }
+          })
+          .cache();
+    }
+    return opening;
+  }
+
+  boolean isOpen() {
+    TcpConnection current = connection;
+    return current != null && !current.isClosed();
+  }
+
+  void close() {
+    TcpConnection current = connection;
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  private synchronized void onOpen(TcpConnection opened) {
+    connection = opened;
+    lastSeen = System.currentTimeMillis();
+    vertx.setPeriodic(heartbeatMillis, timer -> heartbeat(opened, timer));
+  }
+
+  private void heartbeat(TcpConnection current, long timer) {
+    if (current.isClosed()) {
+      vertx.cancelTimer(timer);
+      return;
+    }
+    if (System.currentTimeMillis() - lastSeen > MISSED_HEARTBEATS * heartbeatMillis) {
+      System.out.println(String.format("Close connection to gateway %s:%d, it doesn't answer heartbeats", host, port));
+      current.close();
+      return;
+    }
+    current.write(new JsonObject().put(COMMAND_ACTION_KEY, HEARTBEAT_ACTION));
+  }
+
+  private void receive(JsonObject frame) {
+    lastSeen = System.currentTimeMillis();
+    Object deviceId = frame.remove(DEVICE_ID_KEY);
+    if (deviceId == null) {
+      return;
+    }
+    Route route = routes.get(deviceId.toString());
+    if (route != null) {
+      route.frames.accept(frame);
+    }
+  }
+
+  private void onClose(TcpConnection closed) {
+    synchronized (this) {
+      if (connection == closed) {
+        connection = null;
+      }
+    }
+    for (Route route : routes.values()) {
+      route.onClose.accept(closed);
+    }
+  }
+
+  private static final class Route {
+    private final Consumer<JsonObject> frames;
+    private final Consumer<TcpConnection> onClose;
+
+    private Route(Consumer<JsonObject> frames, Consumer<TcpConnection> onClose) {
+      this.frames = frames;
+      this.onClose = onClose;
+    }
+  }
+}
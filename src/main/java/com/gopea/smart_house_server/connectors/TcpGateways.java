@@ -0,0 +1,85 @@
+package com.gopea.smart_house_server.connectors;
+
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.net.NetClient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Registry of connections which are shared by devices behind the same host:port. A gateway is created
+ * for the first connector of a host:port and its connection is closed when the last one releases it.
+ */
+public class TcpGateways {
+
+  public static final long DEFAULT_HEARTBEAT_MILLIS = 10_000;
+  public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+
+  private final Supplier<Vertx> vertx;
+  private final long heartbeatMillis;
+  private final long connectTimeoutMillis;
+  private final Map<String, TcpGateway> gateways;
+  private NetClient client;
+
+  public TcpGateways(Vertx vertx) {
+    this(() -> vertx, DEFAULT_HEARTBEAT_MILLIS, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * @param vertx           Supplier of Vertx, the client is created for the first gateway.
+   * @param heartbeatMillis How often gateways are sent heartbeats.
+   */
+  public TcpGateways(Supplier<Vertx> vertx, long heartbeatMillis, long connectTimeoutMillis) {
+    if (heartbeatMillis <= 0 || connectTimeoutMillis <= 0) {
+      throw new IllegalArgumentException("Heartbeat and connect timeout should be positive");
+    }
+    this.vertx = vertx;
+    this.heartbeatMillis = heartbeatMillis;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.gateways = new HashMap<>();
+  }
+
+  /**
+   * @return Number of gateways which are used by connectors.
+   */
+  public synchronized int size() {
+    return gateways.size();
+  }
+
+  /**
+   * @return Gateway of the host:port, it should be released once the connector doesn't need it.
+   */
+  synchronized TcpGateway acquire(String host, int port) {
+    TcpGateway gateway = gateways.get(getKey(host, port));
+    if (gateway == null) {
+      gateway = new TcpGateway(host, port, vertx.get(), getClient(), heartbeatMillis);
+      gateways.put(getKey(host, port), gateway);
+    }
+    gateway.references++;
+    return gateway;
+  }
+
+  synchronized void release(String host, int port) {
+    String key = getKey(host, port);
+    TcpGateway gateway = gateways.get(key);
+    if (gateway != null && --gateway.references == 0) {
+      gateways.remove(key);
+      gateway.close();
+    }
+  }
+
+  private NetClient getClient() {
+    if (client == null) {
+      client = vertx.get().createNetClient(new NetClientOptions()
+          .setTcpKeepAlive(true)
+          .setConnectTimeout((int) Math.min(connectTimeoutMillis, Integer.MAX_VALUE)));
+    }
+    return client;
+  }
+
+  private static String getKey(String host, int port) {
+    return String.format("%s:%d", host, port);
+  }
+}
@@ -1,19 +1,64 @@
 package com.gopea.smart_house_server.data_base;
 
 import com.gopea.smart_house_server.devices.Device;
+import com.gopea.smart_house_server.devices.DeviceState;
+import com.gopea.smart_house_server.devices.DeviceType;
+import io.reactivex.Completable;
 import io.reactivex.Maybe;
 import io.reactivex.Single;
 import io.vertx.core.json.JsonObject;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface DeviceStorage {
+
+  /**
+   * Restores devices saved by previous runs. Should be called before the storage is used.
+   */
+  Completable load();
+
   Single<JsonObject> addDevice(Device device);
 
+  /**
+   * Saves current properties of the device after it was changed.
+   *
+   * @param id Id of the changed device.
+   */
+  Single<JsonObject> updateDevice(String id);
+
   Maybe<Device> getDevice(String id);
 
+  /**
+   * Looks up several devices at once.
+   *
+   * @param ids Ids of devices, duplicates are ignored.
+   * @return Found devices by their ids in the order of ids, ids which don't exist are missed.
+   */
+  Single<Map<String, Device>> getDevices(Collection<String> ids);
+
   Single<JsonObject> deleteDevice(String id);
 
   Single<List<Pair<String, Device>>> getDevices();
+
+  /**
+   * Returns devices filtered with secondary indexes, so the cost depends on the size of the result.
+   *
+   * @param type  Type of devices, devices which class differs from the class of the type are skipped.
+   *              Null for any type.
+   * @param state State of devices, null for any state.
+   * @return Devices ordered as in {@link #getDevices()}.
+   */
+  Single<List<Pair<String, Device>>> getDevices(DeviceType type, DeviceState state);
+
+  /**
+   * Returns a page of devices filtered as in {@link #getDevices(DeviceType, DeviceState)}.
+   *
+   * @param cursor Id of the last device of the previous page, null for the first page.
+   * @param limit  Max size of the page.
+   * @return Devices which go after the cursor in the order of {@link #getDevices()}.
+   */
+  Single<List<Pair<String, Device>>> getDevices(DeviceType type, DeviceState state, String cursor, int limit);
 }
@@ -5,37 +5,75 @@ import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.routers.users.User;
 import com.gopea.smart_house_server.routers.users.UserType;
 
-import io.reactivex.Flowable;
+import io.reactivex.Completable;
 import io.reactivex.Maybe;
 import io.reactivex.Single;
+import io.reactivex.subjects.CompletableSubject;
+import io.vertx.core.file.CopyOptions;
 import io.vertx.core.json.JsonObject;
 import io.vertx.reactivex.core.Vertx;
 import io.vertx.reactivex.core.buffer.Buffer;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.MESSAGE_KEY;
 
 
+/**
+ * Users are read from the file once and then served from memory.
+ * Changes are written by one writer, changes made while it's writing are written together with the next write.
+ * The file is replaced atomically, so it's never seen partially written.
+ */
 public class FileUserStorage implements UserStorage {
-  private Pair<JsonObject, Long> file;
   public static final String USERS_KEY = "users";
   private static final String PASSWORD_KEY = "password";
   private static final String USER_TYPE_KEY = "user_type";
+  private static final String TEMP_SUFFIX = ".tmp";
 
   private final String filePath;
-  private final Vertx vertx;
+  private final Supplier<Vertx> vertx;
+  private final Map<String, JsonObject> users;
+  private final List<Consumer<String>> changeListeners;
+  private Single<Map<String, JsonObject>> loaded;
+  private List<CompletableSubject> waitingForWrite;
+  private boolean writing;
 
 
   public FileUserStorage(Vertx vertx, String filePath) {
+    this(() -> vertx, filePath);
+  }
+
+  /**
+   * @param vertx Supplier of Vertx, so the storage could be created before Vertx of the server.
+   */
+  public FileUserStorage(Supplier<Vertx> vertx, String filePath) {
     this.vertx = vertx;
     this.filePath = filePath;
+    this.users = new ConcurrentHashMap<>();
+    this.changeListeners = new CopyOnWriteArrayList<>();
+    this.waitingForWrite = new ArrayList<>();
+  }
+
+  @Override
+  public Completable reload() {
+    return Completable.fromAction(() -> {
+      synchronized (this) {
+        loaded = null;
+      }
+      // Users from the new file could differ
+      for (String username : users.keySet()) {
+        notifyChanged(username);
+      }
+    }).andThen(Single.defer(this::load)).ignoreElement();
   }
 
   @Override
@@ -45,9 +83,10 @@ public class FileUserStorage implements UserStorage {
 
   @Override
   public Single<JsonObject> updatePassword(User user) {
-    return readFile()
-        .flatMap(json -> {
-          JsonObject userData = json.getJsonObject(USERS_KEY).getJsonObject(user.getUsername());
+    return load()
+        .flatMap(users -> {
+          JsonObject userData = users.computeIfPresent(user.getUsername(),
+              (username, data) -> data.copy().put(PASSWORD_KEY, user.getPassword()));
           if (userData == null) {
             return Single.just(
                 new JsonObject()
@@ -55,9 +94,8 @@ public class FileUserStorage implements UserStorage {
                     .put(MESSAGE_KEY, "User doesn't exists")
                     .put(EXTERNAL_STATUS_KEY, StatusCode.NOT_FOUND.getStatusCode()));
           }
-          userData.put(PASSWORD_KEY, user.getPassword());
-          return vertx.fileSystem().rxWriteFile(filePath,
-              Buffer.newInstance(json.toBuffer()))
+          notifyChanged(user.getUsername());
+          return persist()
               .andThen(Single.just(new JsonObject()
                   .put(INTERNAL_STATUS_KEY, InternalStatus.OK)
                   .put(EXTERNAL_STATUS_KEY, StatusCode.SUCCESS.getStatusCode()))
@@ -65,13 +103,37 @@ public class FileUserStorage implements UserStorage {
         });
   }
 
+  @Override
+  public Single<JsonObject> upgradePassword(User user, byte[] oldPassword, byte[] newPassword) {
+    return load()
+        .flatMap(users -> {
+          JsonObject userData = users.computeIfPresent(user.getUsername(),
+              (username, data) -> Arrays.equals(data.getBinary(PASSWORD_KEY), oldPassword)
+                  ? data.copy().put(PASSWORD_KEY, newPassword)
+                  : data);
+          if (userData == null || !Arrays.equals(userData.getBinary(PASSWORD_KEY), newPassword)) {
+            return Single.just(
+                new JsonObject()
+                    .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
+                    .put(MESSAGE_KEY, "User doesn't exists or password was changed")
+                    .put(EXTERNAL_STATUS_KEY, StatusCode.UNPROCESSABLE_ENTITY.getStatusCode()));
+          }
+          return persist()
+              .andThen(Single.just(new JsonObject()
+                  .put(INTERNAL_STATUS_KEY, InternalStatus.OK)
+                  .put(EXTERNAL_STATUS_KEY, StatusCode.SUCCESS.getStatusCode()))
+              );
+        });
+  }
 
   @Override
   public Single<JsonObject> addUser(User user) {
-    return readFile()
-        .flatMap(json -> {
-          JsonObject users = json.getJsonObject(USERS_KEY);
-          if (users.getJsonObject(user.getUsername()) != null) {
+    return load()
+        .flatMap(users -> {
+          JsonObject userData = new JsonObject()
+              .put(PASSWORD_KEY, user.getPassword())
+              .put(USER_TYPE_KEY, user.getUserType().toString().toLowerCase());
+          if (users.putIfAbsent(user.getUsername(), userData) != null) {
             return Single.just(
                 new JsonObject()
                     .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
@@ -79,11 +141,7 @@ public class FileUserStorage implements UserStorage {
                     .put(MESSAGE_KEY, String.format("User %s already exists", user.getUsername()))
             );
           }
-          JsonObject userData = new JsonObject()
-              .put(PASSWORD_KEY, user.getPassword())
-              .put(USER_TYPE_KEY, user.getUserType().toString().toLowerCase());
-          users.put(user.getUsername(), userData);
-          return vertx.fileSystem().rxWriteFile(filePath, Buffer.newInstance(json.toBuffer()))
+          return persist()
               .andThen(Single.just(new JsonObject()
                   .put(INTERNAL_STATUS_KEY, InternalStatus.OK)
                   .put(EXTERNAL_STATUS_KEY, StatusCode.CREATED.getStatusCode())
@@ -93,11 +151,9 @@ public class FileUserStorage implements UserStorage {
 
   @Override
   public Single<JsonObject> deleteUser(String username) {
-    return readFile()
-        .flatMap(json -> {
-          JsonObject users = json.getJsonObject(USERS_KEY);
-
-          if (users.getJsonObject(username) == null) {
+    return load()
+        .flatMap(users -> {
+          if (users.remove(username) == null) {
             return Single.just(
                 new JsonObject()
                     .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
@@ -105,9 +161,8 @@ public class FileUserStorage implements UserStorage {
                     .put(MESSAGE_KEY, String.format("Username %s doesn't exists", username))
             );
           }
-          users.remove(username);
-
-          return vertx.fileSystem().rxWriteFile(filePath, Buffer.newInstance(json.toBuffer()))
+          notifyChanged(username);
+          return persist()
               .andThen(Single.just(
                   new JsonObject()
                       .put(INTERNAL_STATUS_KEY, InternalStatus.OK)
@@ -124,23 +179,26 @@ public class FileUserStorage implements UserStorage {
 
   @Override
   public Single<List<User>> getUsers(UserType userType) {
-    return getUsers()
-        .flatMap(list -> Flowable.fromIterable(list)
-            .filter(user -> user.getUserType().equals(userType))
-            .collectInto(new ArrayList<>(), ArrayList::add));
+    return load()
+        .map(users -> {
+          List<User> listUsers = new ArrayList<>();
+          for (Map.Entry<String, JsonObject> entry : users.entrySet()) {
+            User user = toUser(entry.getKey(), entry.getValue());
+            if (user.getUserType().equals(userType)) {
+              listUsers.add(user);
+            }
+          }
+          return listUsers;
+        });
   }
 
   @Override
   public Single<List<User>> getUsers() {
-    return readFile()
-        .map(json -> json.getJsonObject(USERS_KEY))
+    return load()
         .map(users -> {
           List<User> listUsers = new ArrayList<>();
-          for (String username : users.fieldNames()) {
-            JsonObject user = users.getJsonObject(username);
-            listUsers.add(new User(username,
-                UserType.valueOf(user.getString(USER_TYPE_KEY).toUpperCase()),
-                user.getBinary(PASSWORD_KEY)));
+          for (Map.Entry<String, JsonObject> entry : users.entrySet()) {
+            listUsers.add(toUser(entry.getKey(), entry.getValue()));
           }
           return listUsers;
         });
@@ -148,32 +206,116 @@ public class FileUserStorage implements UserStorage {
 
   @Override
   public Maybe<User> getUser(String username) {
-    return readFile()
-        .flatMapMaybe(json -> {
-          JsonObject user = json.getJsonObject(USERS_KEY).getJsonObject(username);
+    return load()
+        .flatMapMaybe(users -> {
+          JsonObject user = users.get(username);
           if (user == null) {
             return Maybe.empty();
           }
-          return Maybe.just(new User(username,
-              UserType.valueOf(user.getString(USER_TYPE_KEY).toUpperCase()),
-              user.getBinary(PASSWORD_KEY)));
+          return Maybe.just(toUser(username, user));
         });
   }
 
-  private Single<JsonObject> readFile() {
-    return vertx.fileSystem().rxProps(filePath)
-        .flatMap(fileProps -> {
-          if (file == null || file.getRight() < fileProps.lastModifiedTime()) {
+  @Override
+  public void addChangeListener(Consumer<String> listener) {
+    changeListeners.add(listener);
+  }
+
+  private void notifyChanged(String username) {
+    for (Consumer<String> listener : changeListeners) {
+      listener.accept(username);
+    }
+  }
+
+  /**
+   * Reads the file on the first call, later calls get the same map without any I/O.
+   * A missed file is treated as empty, a failed read is retried by the next call.
+   */
+  private synchronized Single<Map<String, JsonObject>> load() {
+    if (loaded == null) {
+      loaded = vertx.get().fileSystem().rxExists(filePath)
+          .flatMap(exists -> {
+            if (!exists) {
+              return Single.just(new JsonObject());
+            }
             System.out.println("Read users file");
-            return vertx.fileSystem().rxReadFile(filePath)
-                .map(Buffer::toJsonObject)
-                .map(json -> {
-                  file = new ImmutablePair<>(json, System.currentTimeMillis());
-                  return json;
-                });
-          }
-          return Single.just(file.getLeft());
-        });
+            return vertx.get().fileSystem().rxReadFile(filePath)
+                .map(buffer -> buffer.toJsonObject().getJsonObject(USERS_KEY, new JsonObject()));
+          })
+          .map(json -> {
+            users.clear();
+            for (String username : json.fieldNames()) {
+              users.put(username, json.getJsonObject(username));
+            }
+            return users;
+          })
+          .doOnError(err -> {
+            synchronized (this) {
+              loaded = null;
+            }
+          })
+          .cache();
+    }
+    return loaded;
+  }
+
+  /**
+   * Schedules writing of the current users.
+   *
+   * @return Completable which completes when a write which started after this call is finished.
+   */
+  private Completable persist() {
+    CompletableSubject result = CompletableSubject.create();
+    boolean startWrite;
+    synchronized (this) {
+      waitingForWrite.add(result);
+      startWrite = !writing;
+      writing = true;
+    }
+    if (startWrite) {
+      writeFile();
+    }
+    return result;
+  }
+
+  private void writeFile() {
+    List<CompletableSubject> batch;
+    synchronized (this) {
+      batch = waitingForWrite;
+      waitingForWrite = new ArrayList<>();
+    }
+    JsonObject usersJson = new JsonObject();
+    for (Map.Entry<String, JsonObject> entry : users.entrySet()) {
+      usersJson.put(entry.getKey(), entry.getValue());
+    }
+    String tempPath = filePath + TEMP_SUFFIX;
+    vertx.get().fileSystem().rxWriteFile(tempPath, Buffer.newInstance(new JsonObject().put(USERS_KEY, usersJson).toBuffer()))
+        .andThen(vertx.get().fileSystem().rxMove(tempPath, filePath,
+            new CopyOptions().setReplaceExisting(true).setAtomicMove(true)))
+        .subscribe(() -> finishWrite(batch, null), error -> finishWrite(batch, error));
+  }
+
+  private void finishWrite(List<CompletableSubject> batch, Throwable error) {
+    for (CompletableSubject result : batch) {
+      if (error == null) {
+        result.onComplete();
+      } else {
+        result.onError(error);
+      }
+    }
+    synchronized (this) {
+      if (waitingForWrite.isEmpty()) {
+        writing = false;
+        return;
+      }
+    }
+    writeFile();
+  }
+
+  private static User toUser(String username, JsonObject user) {
+    return new User(username,
+        UserType.valueOf(user.getString(USER_TYPE_KEY).toUpperCase()),
+        user.getBinary(PASSWORD_KEY));
   }
 
 }
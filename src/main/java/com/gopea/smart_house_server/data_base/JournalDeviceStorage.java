@@ -0,0 +1,356 @@
+package com.gopea.smart_house_server.data_base;
+
+import com.gopea.smart_house_server.devices.BaseDevice;
+import com.gopea.smart_house_server.devices.Device;
+import com.gopea.smart_house_server.devices.DevicePool;
+import com.gopea.smart_house_server.devices.DeviceType;
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.CompletableSubject;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.gopea.smart_house_server.common.Helpers.getEnum;
+import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
+import static com.gopea.smart_house_server.devices.Devices.DEVICE_PROPERTIES_KEY;
+import static com.gopea.smart_house_server.devices.Devices.DEVICE_TYPE_KEY;
+
+/**
+ * Device storage which survives restarts. Every change is appended to the journal,
+ * after a number of changes the journal is compacted into the snapshot.
+ * All file writes are made by one writer thread, changes which come while it's busy are written together.
+ * A change and the queuing of its record are made under the lock of the storage, so records of concurrent
+ * changes of the same device are written in the order the changes were made.
+ */
+public class JournalDeviceStorage extends RuntimeDeviceStorage {
+
+  public static final int DEFAULT_COMPACT_THRESHOLD = 10_000;
+  static final String OPERATION_KEY = "operation";
+  static final String POOL_KEY = "pool";
+  static final String DEVICES_KEY = "devices";
+
+  private final Path journalPath;
+  private final Path snapshotPath;
+  private final int compactThreshold;
+  private final ExecutorService writer;
+
+  /**
+   * Last saved record of every device, guarded by this.
+   */
+  private final Map<String, JsonObject> records;
+  private List<String> pendingLines;
+  private List<CompletableSubject> pendingResults;
+  private boolean flushScheduled;
+  private int journalSize;
+
+  public JournalDeviceStorage(String journalPath, String snapshotPath) {
+    this(journalPath, snapshotPath, DEFAULT_COMPACT_THRESHOLD);
+  }
+
+  public JournalDeviceStorage(String journalPath, String snapshotPath, int compactThreshold) {
+    this.journalPath = Paths.get(journalPath);
+    this.snapshotPath = Paths.get(snapshotPath);
+    this.compactThreshold = compactThreshold;
+    this.writer = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "device-journal");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.records = new LinkedHashMap<>();
+    this.pendingLines = new ArrayList<>();
+    this.pendingResults = new ArrayList<>();
+  }
+
+  /**
+   * Reads the snapshot, replays the journal after it and restores devices with their ids.
+   * Restored devices aren't connected.
+   */
+  @Override
+  public Completable load() {
+    return Completable.fromAction(() -> {
+      Map<String, JsonObject> loaded = new LinkedHashMap<>();
+      if (Files.exists(snapshotPath)) {
+        JsonArray array = new JsonObject(new String(Files.readAllBytes(snapshotPath), StandardCharsets.UTF_8))
+            .getJsonArray(DEVICES_KEY, new JsonArray());
+        for (int i = 0; i < array.size(); i++) {
+          JsonObject record = array.getJsonObject(i);
+          loaded.put(record.getString(Storages.ID), record);
+        }
+      }
+      int replayed = 0;
+      boolean broken = false;
+      if (Files.exists(journalPath)) {
+        for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+          if (line.isEmpty()) {
+            continue;
+          }
+          JsonObject record;
+          try {
+            record = new JsonObject(line);
+          } catch (DecodeException e) {
+            // The last line could be written partially before a crash
+            System.out.println("Skip broken journal record: " + e.getMessage());
+            broken = true;
+            continue;
+          }
+          String id = record.getString(Storages.ID);
+          if (Operation.DELETE.equals(getEnum(record.getString(OPERATION_KEY), Operation.class))) {
+            loaded.remove(id);
+          } else {
+            record.remove(OPERATION_KEY);
+            loaded.put(id, record);
+          }
+          replayed++;
+        }
+      }
+      restore(loaded);
+      synchronized (this) {
+        records.putAll(loaded);
+      }
+      if (replayed > 0 || broken) {
+        // Starts with the empty journal, so the next start is faster and nothing is appended to a broken line
+        compact(loaded);
+      }
+      System.out.println(String.format("Restored %d devices", loaded.size()));
+    }).subscribeOn(Schedulers.from(writer));
+  }
+
+  @Override
+  public Single<JsonObject> addDevice(Device device) {
+    return Single.defer(() -> {
+      synchronized (this) {
+        JsonObject response = super.addDevice(device).blockingGet();
+        if (!isInternalStatusOk(response)) {
+          return Single.just(response);
+        }
+        return save(Operation.ADD, response.getString(Storages.ID), device)
+            .andThen(Single.just(response));
+      }
+    });
+  }
+
+  /**
+   * Saves the device, members of a pool are saved too if the update of the pool changed them.
+   */
+  @Override
+  public Single<JsonObject> updateDevice(String id) {
+    return Single.defer(() -> {
+      synchronized (this) {
+        JsonObject response = super.updateDevice(id).blockingGet();
+        if (!isInternalStatusOk(response)) {
+          return Single.just(response);
+        }
+        Device device = getDevice(id).blockingGet();
+        List<Completable> saved = new ArrayList<>();
+        saved.add(save(Operation.UPDATE, id, device));
+        if (device instanceof DevicePool) {
+          JsonArray ids = device.toJson().getJsonArray(DEVICES_KEY, new JsonArray());
+          for (int i = 0; i < ids.size(); i++) {
+            String memberId = ids.getString(i);
+            Device member = getDevice(memberId).blockingGet();
+            if (member != null && !toRecord(memberId, member).equals(records.get(memberId))) {
+              saved.add(save(Operation.UPDATE, memberId, member));
+            }
+          }
+        }
+        return Completable.merge(saved).andThen(Single.just(response));
+      }
+    });
+  }
+
+  @Override
+  public Single<JsonObject> deleteDevice(String id) {
+    return Single.defer(() -> {
+      synchronized (this) {
+        JsonObject response = super.deleteDevice(id).blockingGet();
+        if (!isInternalStatusOk(response)) {
+          return Single.just(response);
+        }
+        return save(Operation.DELETE, id, null)
+            .andThen(Single.just(response));
+      }
+    });
+  }
+
+  private void restore(Map<String, JsonObject> loaded) {
+    List<Pair<String, JsonObject>> pools = new ArrayList<>();
+    for (Map.Entry<String, JsonObject> entry : loaded.entrySet()) {
+      JsonObject record = entry.getValue();
+      if (record.getBoolean(POOL_KEY, false)) {
+        pools.add(new ImmutablePair<>(entry.getKey(), record));
+        continue;
+      }
+      DeviceType type = DeviceType.getEnum(record.getString(DEVICE_TYPE_KEY));
+      try {
+        restoreDevice(entry.getKey(), BaseDevice.getInstance(type.getClazz(), record.getJsonObject(DEVICE_PROPERTIES_KEY)));
+      } catch (Exception e) {
+        System.out.println(String.format("Can't restore device %s: %s", entry.getKey(), e.getMessage()));
+      }
+    }
+    // Pools are restored after devices they consist of
+    for (Pair<String, JsonObject> pool : pools) {
+      DeviceType type = DeviceType.getEnum(pool.getRight().getString(DEVICE_TYPE_KEY));
+      JsonObject properties = pool.getRight().getJsonObject(DEVICE_PROPERTIES_KEY);
+      JsonArray ids = properties.getJsonArray(DEVICES_KEY, new JsonArray());
+      List<Pair<String, Device>> members = new ArrayList<>();
+      for (int i = 0; i < ids.size(); i++) {
+        String id = ids.getString(i);
+        Device device = getDevice(id).blockingGet();
+        if (device != null && device.getType().equals(type)) {
+          members.add(new ImmutablePair<>(id, device));
+        }
+      }
+      restoreDevice(pool.getLeft(), new DevicePool(members, type,
+          properties.getInteger(DevicePool.MAX_CONCURRENCY_KEY, DevicePool.DEFAULT_MAX_CONCURRENCY),
+          properties.getLong(DevicePool.COMMAND_TIMEOUT_KEY, DevicePool.DEFAULT_COMMAND_TIMEOUT_MILLIS)));
+    }
+  }
+
+  /**
+   * Appends the change to the journal.
+   *
+   * @return Completable which completes when the change is written.
+   */
+  private Completable save(Operation operation, String id, Device device) {
+    CompletableSubject result = CompletableSubject.create();
+    synchronized (this) {
+      JsonObject line;
+      if (operation == Operation.DELETE) {
+        records.remove(id);
+        line = new JsonObject().put(Storages.ID, id);
+      } else {
+        JsonObject record = toRecord(id, device);
+        records.put(id, record);
+        line = record.copy();
+      }
+      pendingLines.add(line.put(OPERATION_KEY, operation.toString().toLowerCase()).encode());
+      pendingResults.add(result);
+      if (!flushScheduled) {
+        flushScheduled = true;
+        writer.execute(this::flush);
+      }
+    }
+    return result;
+  }
+
+  private void flush() {
+    List<String> lines;
+    List<CompletableSubject> results;
+    Map<String, JsonObject> snapshot = null;
+    synchronized (this) {
+      lines = pendingLines;
+      results = pendingResults;
+      pendingLines = new ArrayList<>();
+      pendingResults = new ArrayList<>();
+      flushScheduled = false;
+      journalSize += lines.size();
+      if (journalSize >= compactThreshold) {
+        // Records contain all written lines, so the journal could be replaced with them
+        snapshot = new LinkedHashMap<>(records);
+        journalSize = 0;
+      }
+    }
+    try {
+      appendToJournal(lines);
+      if (snapshot != null) {
+        compact(snapshot);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      for (CompletableSubject result : results) {
+        result.onError(e);
+      }
+      return;
+    }
+    for (CompletableSubject result : results) {
+      result.onComplete();
+    }
+  }
+
+  private void appendToJournal(List<String> lines) throws IOException {
+    StringBuilder builder = new StringBuilder();
+    for (String line : lines) {
+      builder.append(line).append('\n');
+    }
+    createParent(journalPath);
+    try (FileChannel channel = FileChannel.open(journalPath,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+  }
+
+  /**
+   * Writes the snapshot to a temporary file, replaces the old one with it and clears the journal.
+   * If it fails after the replace, replay of the journal over the new snapshot gives the same devices.
+   */
+  private void compact(Map<String, JsonObject> snapshot) throws IOException {
+    JsonArray array = new JsonArray();
+    for (JsonObject record : snapshot.values()) {
+      array.add(record);
+    }
+    createParent(snapshotPath);
+    createParent(journalPath);
+    Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.wrap(new JsonObject().put(DEVICES_KEY, array).encode().getBytes(StandardCharsets.UTF_8));
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    Files.move(temp, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      channel.truncate(0);
+      channel.force(false);
+    }
+  }
+
+  private static void createParent(Path path) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+  }
+
+  private static JsonObject toRecord(String id, Device device) {
+    JsonObject record = new JsonObject()
+        .put(Storages.ID, id)
+        .put(DEVICE_TYPE_KEY, device.getType().toString().toLowerCase())
+        .put(DEVICE_PROPERTIES_KEY, device.toJson());
+    if (device instanceof DevicePool) {
+      record.put(POOL_KEY, true);
+    }
+    return record;
+  }
+
+  private enum Operation {
+    ADD,
+    UPDATE,
+    DELETE
+  }
+}
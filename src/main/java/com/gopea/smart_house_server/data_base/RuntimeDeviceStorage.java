@@ -3,16 +3,30 @@ package com.gopea.smart_house_server.data_base;
 import com.gopea.smart_house_server.common.InternalStatus;
 import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.devices.Device;
+import com.gopea.smart_house_server.devices.DeviceState;
+import com.gopea.smart_house_server.devices.DeviceStateListener;
+import com.gopea.smart_house_server.devices.DeviceType;
+import io.reactivex.Completable;
 import io.reactivex.Maybe;
 import io.reactivex.Single;
 import io.vertx.core.json.JsonObject;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
@@ -20,23 +34,78 @@ import static com.gopea.smart_house_server.common.Helpers.MESSAGE_KEY;
 
 public class RuntimeDeviceStorage implements DeviceStorage {
 
+  /**
+   * Orders ids by the number they were created with.
+   */
+  public static final Comparator<String> ID_ORDER = Comparator
+      .<String>comparingLong(RuntimeDeviceStorage::getSequence)
+      .thenComparing(Comparator.<String>naturalOrder());
+
+  private static final String ID_PREFIX = "device-";
+  private static final AtomicLong NEXT_ID = new AtomicLong();
+
   private final Map<String, Device> devices;
-  private static int id = 0;
+  private final Map<DeviceType, Set<String>> typeIndex;
+  private final Map<DeviceState, Set<String>> stateIndex;
+  private final Map<String, DeviceState> states;
+  private final Map<String, DeviceStateListener> stateListeners;
+  /**
+   * Mutations take the shared lock, so they don't block each other.
+   * Building of a snapshot takes the exclusive one to see a consistent state.
+   */
+  private final ReadWriteLock snapshotLock;
+  private final AtomicLong version;
+  private volatile Snapshot snapshot;
 
   public RuntimeDeviceStorage() {
-    devices = new HashMap<>();
+    devices = new ConcurrentHashMap<>();
+    typeIndex = new EnumMap<>(DeviceType.class);
+    for (DeviceType type : DeviceType.values()) {
+      typeIndex.put(type, ConcurrentHashMap.newKeySet());
+    }
+    stateIndex = new EnumMap<>(DeviceState.class);
+    for (DeviceState state : DeviceState.values()) {
+      stateIndex.put(state, ConcurrentHashMap.newKeySet());
+    }
+    states = new ConcurrentHashMap<>();
+    stateListeners = new ConcurrentHashMap<>();
+    snapshotLock = new ReentrantReadWriteLock();
+    version = new AtomicLong();
+    snapshot = new Snapshot(0, Collections.emptyList());
+  }
+
+  @Override
+  public Completable load() {
+    return Completable.complete();
   }
 
   @Override
   public Single<JsonObject> addDevice(Device device) {
-    String currentId = String.format("device-%d", id++);
-    devices.put(currentId, device);
+    String currentId = ID_PREFIX + NEXT_ID.getAndIncrement();
+    putDevice(currentId, device);
     return Single.just(new JsonObject()
         .put(INTERNAL_STATUS_KEY, InternalStatus.OK)
         .put(EXTERNAL_STATUS_KEY, StatusCode.CREATED.getStatusCode())
         .put(Storages.ID, currentId));
   }
 
+  @Override
+  public Single<JsonObject> updateDevice(String id) {
+    if (!devices.containsKey(id)) {
+      return Single.just(
+          new JsonObject()
+              .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
+              .put(EXTERNAL_STATUS_KEY, StatusCode.NOT_FOUND.getStatusCode())
+              .put(MESSAGE_KEY, String.format("Device with id: %s doesn't exists", id))
+      );
+    }
+    return Single.just(
+        new JsonObject()
+            .put(INTERNAL_STATUS_KEY, InternalStatus.OK)
+            .put(EXTERNAL_STATUS_KEY, StatusCode.SUCCESS.getStatusCode())
+    );
+  }
+
   @Override
   public Maybe<Device> getDevice(String id) {
     Device device = devices.get(id);
@@ -46,9 +115,36 @@ public class RuntimeDeviceStorage implements DeviceStorage {
     return Maybe.just(device);
   }
 
+  @Override
+  public Single<Map<String, Device>> getDevices(Collection<String> ids) {
+    return Single.fromCallable(() -> {
+      Map<String, Device> found = new LinkedHashMap<>();
+      for (String id : ids) {
+        Device device = devices.get(id);
+        if (device != null) {
+          found.put(id, device);
+        }
+      }
+      return found;
+    });
+  }
+
   @Override
   public Single<JsonObject> deleteDevice(String id) {
-    Device device = devices.get(id);
+    Device device;
+    snapshotLock.readLock().lock();
+    try {
+      device = devices.remove(id);
+      if (device != null) {
+        version.incrementAndGet();
+      }
+    } finally {
+      snapshotLock.readLock().unlock();
+    }
+    if (device != null) {
+      removeFromIndexes(id, device);
+      device.release();
+    }
     if (device == null) {
       return Single.just(
           new JsonObject()
@@ -57,7 +153,6 @@ public class RuntimeDeviceStorage implements DeviceStorage {
               .put(MESSAGE_KEY, String.format("Device with id: %s doesn't exists", id))
       );
     }
-    devices.remove(id);
     return Single.just(
         new JsonObject()
             .put(INTERNAL_STATUS_KEY, InternalStatus.OK)
@@ -65,14 +160,171 @@ public class RuntimeDeviceStorage implements DeviceStorage {
     );
   }
 
+  /**
+   * Returns an immutable snapshot ordered by {@link #ID_ORDER}. The snapshot is rebuilt only after changes.
+   */
   @Override
   public Single<List<Pair<String, Device>>> getDevices() {
-    List<Pair<String, Device>> list = new ArrayList<>();
-    for (String key : devices.keySet()) {
-      list.add(new ImmutablePair<>(key, devices.get(key)));
+    return Single.fromCallable(this::getSnapshot);
+  }
+
+  @Override
+  public Single<List<Pair<String, Device>>> getDevices(DeviceType type, DeviceState state) {
+    if (type == null && state == null) {
+      return getDevices();
+    }
+    return Single.fromCallable(() -> {
+      Set<String> typeIds = type == null ? null : typeIndex.get(type);
+      Set<String> stateIds = state == null ? null : stateIndex.get(state);
+      Set<String> ids = typeIds;
+      if (ids == null || (stateIds != null && stateIds.size() < ids.size())) {
+        ids = stateIds;
+      }
+      List<Pair<String, Device>> list = new ArrayList<>(ids.size());
+      for (String id : ids) {
+        Device device = devices.get(id);
+        if (device == null
+            || (typeIds != null && !typeIds.contains(id))
+            || (state != null && !state.equals(states.get(id)))) {
+          continue;
+        }
+        list.add(new ImmutablePair<>(id, device));
+      }
+      list.sort((first, second) -> ID_ORDER.compare(first.getLeft(), second.getLeft()));
+      return list;
+    });
+  }
+
+  @Override
+  public Single<List<Pair<String, Device>>> getDevices(DeviceType type, DeviceState state, String cursor, int limit) {
+    return getDevices(type, state)
+        .map(list -> {
+          int from = 0;
+          if (cursor != null) {
+            // First position with id greater than the cursor
+            int high = list.size();
+            while (from < high) {
+              int middle = (from + high) >>> 1;
+              if (ID_ORDER.compare(list.get(middle).getLeft(), cursor) <= 0) {
+                from = middle + 1;
+              } else {
+                high = middle;
+              }
+            }
+          }
+          int to = (int) Math.min((long) from + Math.max(limit, 0), list.size());
+          return list.subList(from, to);
+        });
+  }
+
+  /**
+   * Puts the device with the id it had before, new ids are generated after it.
+   */
+  protected void restoreDevice(String id, Device device) {
+    long sequence = getSequence(id);
+    if (sequence != Long.MAX_VALUE) {
+      NEXT_ID.accumulateAndGet(sequence + 1, Math::max);
+    }
+    putDevice(id, device);
+  }
+
+  private void putDevice(String id, Device device) {
+    DeviceType type = DeviceType.getEnum(device.getClass());
+    if (type != null) {
+      typeIndex.get(type).add(id);
+    }
+    snapshotLock.readLock().lock();
+    try {
+      devices.put(id, device);
+      version.incrementAndGet();
+    } finally {
+      snapshotLock.readLock().unlock();
+    }
+    addStateIndex(id, device);
+  }
+
+  private void addStateIndex(String id, Device device) {
+    DeviceStateListener listener = (ign, oldState, newState) -> updateState(id, newState);
+    stateListeners.put(id, listener);
+    device.addStateListener(listener);
+    device.getState()
+        .subscribe(state -> states.computeIfAbsent(id, key -> {
+          if (!devices.containsKey(id)) {
+            return null;
+          }
+          stateIndex.get(state).add(id);
+          return state;
+        }));
+  }
+
+  private void updateState(String id, DeviceState newState) {
+    states.compute(id, (key, oldState) -> {
+      if (oldState != null) {
+        stateIndex.get(oldState).remove(id);
+      }
+      if (!devices.containsKey(id)) {
+        return null;
+      }
+      stateIndex.get(newState).add(id);
+      return newState;
+    });
+  }
+
+  private void removeFromIndexes(String id, Device device) {
+    DeviceStateListener listener = stateListeners.remove(id);
+    if (listener != null) {
+      device.removeStateListener(listener);
+    }
+    DeviceType type = DeviceType.getEnum(device.getClass());
+    if (type != null) {
+      typeIndex.get(type).remove(id);
+    }
+    states.compute(id, (key, oldState) -> {
+      if (oldState != null) {
+        stateIndex.get(oldState).remove(id);
+      }
+      return null;
+    });
+  }
+
+  private List<Pair<String, Device>> getSnapshot() {
+    Snapshot current = snapshot;
+    if (current.version == version.get()) {
+      return current.devices;
+    }
+    snapshotLock.writeLock().lock();
+    try {
+      current = snapshot;
+      long currentVersion = version.get();
+      if (current.version == currentVersion) {
+        return current.devices;
+      }
+      List<Pair<String, Device>> list = new ArrayList<>(devices.size());
+      for (Map.Entry<String, Device> entry : devices.entrySet()) {
+        list.add(new ImmutablePair<>(entry.getKey(), entry.getValue()));
+      }
+      list.sort((first, second) -> ID_ORDER.compare(first.getLeft(), second.getLeft()));
+      snapshot = new Snapshot(currentVersion, Collections.unmodifiableList(list));
+      return snapshot.devices;
+    } finally {
+      snapshotLock.writeLock().unlock();
     }
-    return Single.just(list);
   }
 
+  private static long getSequence(String id) {
+    if (!id.startsWith(ID_PREFIX)) {
+      return Long.MAX_VALUE;
+    }
+    return NumberUtils.toLong(id.substring(ID_PREFIX.length()), Long.MAX_VALUE);
+  }
 
+  private static final class Snapshot {
+    private final long version;
+    private final List<Pair<String, Device>> devices;
+
+    private Snapshot(long version, List<Pair<String, Device>> devices) {
+      this.version = version;
+      this.devices = devices;
+    }
+  }
 }
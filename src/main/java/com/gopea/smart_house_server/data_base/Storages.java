@@ -1,12 +1,49 @@
 package com.gopea.smart_house_server.data_base;
 
 import com.gopea.smart_house_server.common.Helpers;
+import com.gopea.smart_house_server.common.PasswordHasher;
+import com.gopea.smart_house_server.connectors.TcpGateways;
 import io.vertx.reactivex.core.Vertx;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 public final class Storages {
   public static final String ID = "id";
-  public static final UserStorage USER_STORAGE = new FileUserStorage(Vertx.vertx(), Helpers.PASSWORDS_FILE);
-  public static final DeviceStorage DEVICE_STORAGE = new RuntimeDeviceStorage();
+  public static final UserStorage USER_STORAGE = new FileUserStorage(Storages::getVertx, Helpers.PASSWORDS_FILE);
+  public static final PasswordHasher PASSWORD_HASHER = new PasswordHasher(Storages::getVertx);
+  public static final TcpGateways GATEWAYS = new TcpGateways(Storages::getVertx,
+      TcpGateways.DEFAULT_HEARTBEAT_MILLIS, TcpGateways.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+  public static final DeviceStorage DEVICE_STORAGE = createDeviceStorage();
+
+  private static Vertx vertx;
+
+  /**
+   * Sets Vertx which is used by storages, it should be called before they are used.
+   */
+  public static synchronized void setVertx(Vertx vertx) {
+    Storages.vertx = vertx;
+  }
+
+  /**
+   * @return Vertx set by {@link #setVertx(Vertx)} or a private one if storages are used without the server.
+   */
+  static synchronized Vertx getVertx() {
+    if (vertx == null) {
+      vertx = Vertx.vertx();
+    }
+    return vertx;
+  }
+
+  /**
+   * @return Journal storage in the directory from {@link Helpers#DATA_DIR_PROPERTY}.
+   */
+  private static DeviceStorage createDeviceStorage() {
+    Path directory = Paths.get(System.getProperty(Helpers.DATA_DIR_PROPERTY, "."));
+    return new JournalDeviceStorage(
+        directory.resolve(Helpers.DEVICES_JOURNAL_FILE).toString(),
+        directory.resolve(Helpers.DEVICES_SNAPSHOT_FILE).toString());
+  }
 
   private Storages() {
   }
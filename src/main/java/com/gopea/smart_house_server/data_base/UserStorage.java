@@ -2,19 +2,33 @@ package com.gopea.smart_house_server.data_base;
 
 import com.gopea.smart_house_server.routers.users.User;
 import com.gopea.smart_house_server.routers.users.UserType;
+import io.reactivex.Completable;
 import io.reactivex.Maybe;
 import io.reactivex.Single;
 import io.vertx.core.json.JsonObject;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface UserStorage {
 
+  /**
+   * Drops users kept in memory and reads them again, e.g. after the file was replaced.
+   */
+  Completable reload();
+
   Single<JsonObject> updatePassword(User user, byte[] newPassword);
 
   Single<JsonObject> updatePassword(User user);
 
+  /**
+   * Replaces the hash of the same password, e.g. with a stronger one. Change listeners aren't notified.
+   *
+   * @param oldPassword The hash which is replaced, nothing is changed if the password was changed meanwhile.
+   */
+  Single<JsonObject> upgradePassword(User user, byte[] oldPassword, byte[] newPassword);
+
   Single<JsonObject> addUser(User user);
 
   Single<JsonObject> deleteUser(String username);
@@ -27,4 +41,9 @@ public interface UserStorage {
 
   Maybe<User> getUser(String username);
 
+  /**
+   * Adds the listener which gets the username every time a password of the user is changed or the user is deleted.
+   */
+  void addChangeListener(Consumer<String> listener);
+
 }
@@ -4,15 +4,18 @@ import com.gopea.smart_house_server.common.Helpers;
 import com.gopea.smart_house_server.common.InternalStatus;
 import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.connectors.Connector;
+import com.gopea.smart_house_server.connectors.TcpDeviceConnector;
 import io.reactivex.Completable;
-import io.reactivex.Maybe;
 import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
 
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import java.lang.reflect.Constructor;
-import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
@@ -20,14 +23,24 @@ import static com.gopea.smart_house_server.common.Helpers.getEnum;
 import static com.gopea.smart_house_server.common.Helpers.isEqualsWithAny;
 import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
 import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_KEY;
+import static com.gopea.smart_house_server.data_base.Storages.GATEWAYS;
+import static com.gopea.smart_house_server.devices.DevicePollScheduler.SCHEDULER;
 
-public abstract class BaseDevice implements Device {
+public abstract class BaseDevice implements Device, DevicePollScheduler.Pollable {
 
   public static final String HOST_KEY = "host";
   public static final String PORT_KEY = "port";
   public static final String UPDATE_TIME_KEY = "update_time";
+  public static final int MAX_UPDATE_TIME = 7 * 24 * 60 * 60;
   public static final String STATUS_KEY = "status";
-  private long prevTime;
+  public static final String METRICS_SIZE_KEY = "metrics_size";
+  /**
+   * Id of the device behind a gateway, such devices share the TCP connection to host:port of the gateway.
+   */
+  public static final String GATEWAY_DEVICE_ID_KEY = "gateway_device_id";
+  public static final int DEFAULT_METRICS_SIZE = 100;
+  public static final int MAX_METRICS_SIZE = 100_000;
+  private volatile long prevTime;
 
   public static <T extends BaseDevice> T getInstance(Class<T> clazz, JsonObject object) throws Exception {
     Constructor<T> constructor = clazz.getConstructor(JsonObject.class);
@@ -37,21 +50,30 @@ public abstract class BaseDevice implements Device {
   protected final String host;
   protected final int port;
   protected final Connector connector;
+  private final String gatewayDeviceId;
 
-  private final int maxMetrics = 100;
-
-  private DeviceState state;
-  private int updateTime;
-  private JsonArray metrics;
-  private Thread askThread;
+  private volatile DeviceState state;
+  private volatile int updateTime;
+  private final MetricsStore metrics;
+  private final List<DeviceStateListener> stateListeners;
+  private final AtomicReference<DeviceShadow> shadow;
+  private final AtomicReference<Disposable> events;
 
   protected BaseDevice(JsonObject json) {
     host = json.getString(HOST_KEY);
     port = json.getInteger(PORT_KEY);
     updateTime = json.getInteger(UPDATE_TIME_KEY, 0);
-    connector = getConnector(host, port);
+    gatewayDeviceId = json.getString(GATEWAY_DEVICE_ID_KEY);
+    connector = gatewayDeviceId == null
+        ? getConnector(host, port)
+        : new TcpDeviceConnector(GATEWAYS, gatewayDeviceId, host, port,
+            TcpDeviceConnector.DEFAULT_MAX_IN_FLIGHT, TcpDeviceConnector.DEFAULT_REQUEST_TIMEOUT_MILLIS);
     state = DeviceState.DISCONNECTED;
-    metrics = new JsonArray();
+    stateListeners = new CopyOnWriteArrayList<>();
+    shadow = new AtomicReference<>(DeviceShadow.EMPTY);
+    events = new AtomicReference<>();
+    int metricsSize = json.getInteger(METRICS_SIZE_KEY, DEFAULT_METRICS_SIZE);
+    metrics = new MetricsStore(Math.max(1, Math.min(metricsSize, MAX_METRICS_SIZE)));
   }
 
   @Override
@@ -59,14 +81,13 @@ public abstract class BaseDevice implements Device {
     return connector.connect()
         .map(response -> {
           if (Helpers.isInternalStatusOk(response)) {
-            state = DeviceState.CONNECTED;
-            if (askThread != null) {
-              if (askThread.isAlive()) {
-                askThread.interrupt();
-              }
-            }
-            askThread = createAskThread();
-            askThread.start();
+            // The device answered, so earlier failures don't keep it behind an open breaker
+            connector.getRetryPolicy().reset();
+            // A reconnected (or rebooted) device could have changed while it was away
+            clearShadow();
+            setState(DeviceState.CONNECTED);
+            listenEvents();
+            SCHEDULER.register(this);
           }
           return response;
         });
@@ -76,7 +97,12 @@ public abstract class BaseDevice implements Device {
   public Single<JsonObject> disconnect() {
     return connector.disconnect()
         .map(response -> {
-          state = Helpers.isInternalStatusOk(response) ? DeviceState.DISCONNECTED : DeviceState.ERROR;
+          if (Helpers.isInternalStatusOk(response)) {
+            setState(DeviceState.DISCONNECTED);
+            stopEvents();
+          } else {
+            setState(DeviceState.ERROR);
+          }
           return response;
         });
   }
@@ -92,6 +118,26 @@ public abstract class BaseDevice implements Device {
     return Single.just(state);
   }
 
+  /**
+   * Stops polling the device and listening to its messages, connections of the connector are closed.
+   */
+  @Override
+  public void release() {
+    SCHEDULER.unregister(this);
+    stopEvents();
+    connector.release();
+  }
+
+  @Override
+  public void addStateListener(DeviceStateListener listener) {
+    stateListeners.add(listener);
+  }
+
+  @Override
+  public void removeStateListener(DeviceStateListener listener) {
+    stateListeners.remove(listener);
+  }
+
   /**
    * Getter for the updateTime.
    *
@@ -108,8 +154,13 @@ public abstract class BaseDevice implements Device {
    * @return This, so the API can be used fluently.
    */
   public BaseDevice setUpdateTime(int updateTime) {
-    if (updateTime >= 0 && updateTime <= 7 * 24 * 60 * 60)
+    if (updateTime >= 0 && updateTime <= MAX_UPDATE_TIME) {
       this.updateTime = updateTime;
+      // The device is woken up by its old interval otherwise
+      if (SCHEDULER.isRegistered(this)) {
+        SCHEDULER.register(this);
+      }
+    }
     return this;
   }
 
@@ -120,6 +171,10 @@ public abstract class BaseDevice implements Device {
     object.put(PORT_KEY, port);
     object.put(UPDATE_TIME_KEY, updateTime);
     object.put(STATUS_KEY, state.toString().toLowerCase());
+    object.put(METRICS_SIZE_KEY, metrics.capacity());
+    if (gatewayDeviceId != null) {
+      object.put(GATEWAY_DEVICE_ID_KEY, gatewayDeviceId);
+    }
     return object.mergeIn(doToJson());
   }
 
@@ -134,7 +189,7 @@ public abstract class BaseDevice implements Device {
               .put("message", "You should update something")
       );
     }
-    if (updateTimeParam < 0 || updateTimeParam > 7 * 24 * 60 * 60) {
+    if (updateTimeParam < 0 || updateTimeParam > MAX_UPDATE_TIME) {
       return Single.just(
           new JsonObject()
               .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
@@ -156,35 +211,64 @@ public abstract class BaseDevice implements Device {
     if (!isInternalStatusOk(validation)) {
       return Single.just(validation);
     }
-    return executeCommand(command);
+    return executeCommand(command)
+        .doOnSuccess(response -> {
+          if (isInternalStatusOk(response)) {
+            clearShadow();
+          }
+        });
   }
 
   @Override
   public Single<JsonArray> getMetrics() {
-    return Single.just(metrics);
+    return Single.fromCallable(metrics::toJsonArray);
+  }
+
+  @Override
+  public Single<JsonArray> getMetrics(long from, long to, long step) {
+    return Single.fromCallable(() -> metrics.query(from, to, step));
   }
 
   @Override
   public Single<JsonObject> getData() {
-    return getDeviceData()
-        .map(data -> {
-          if (!isInternalStatusOk(data)) {
-            state = DeviceState.DISCONNECTED;
-            if (DeviceState.ERROR.equals(getEnum(data.getString(STATUS_KEY), DeviceState.class))) {
-              state = DeviceState.ERROR;
-            }
+    return fetchData()
+        .map(JsonObject::copy);
+  }
+
+  @Override
+  public Single<JsonObject> getStatus() {
+    return getDeviceStatus()
+        .map(status -> {
+          if (isInternalStatusOk(status)) {
+            long now = System.currentTimeMillis();
+            shadow.updateAndGet(current -> current.withStatus(status, now));
           }
-          addMetric(data);
-          return data;
+          return status;
         });
   }
 
+  /**
+   * @return false while the circuit breaker of the connector is open and calls to the device fail fast.
+   */
+  public boolean isCallPermitted() {
+    return connector.getRetryPolicy().isCallPermitted();
+  }
+
+  /**
+   * @return Last known data and status, they are updated by reads and polls of the device
+   * and cleared by commands which change it.
+   */
+  public DeviceShadow getShadow() {
+    return shadow.get();
+  }
+
   @Override
   public Single<JsonObject> powerOff() {
     return powerOffDevice()
         .doOnSuccess(response -> {
           if (isInternalStatusOk(response)) {
-            state = DeviceState.SWITCHED_OFF;
+            clearShadow();
+            setState(DeviceState.SWITCHED_OFF);
           }
         });
   }
@@ -199,70 +283,115 @@ public abstract class BaseDevice implements Device {
 
   protected abstract Single<JsonObject> powerOffDevice();
 
+  protected abstract Single<JsonObject> getDeviceStatus();
+
   protected abstract void handleEvent(JsonObject message);
 
-  private Thread createAskThread() {
-    return new Thread(() ->
-        connector
-            .isConnected()
-            .flatMapMaybe(isConnected -> {
-              if (!isConnected) {
-                state = DeviceState.DISCONNECTED;
-                return Maybe.empty();
-              }
-              return connector.getMessage();
-            })
-            .map(this::handleMessage)
-            .switchIfEmpty(Single.just(new JsonObject()))
-            .flatMapCompletable(ign -> {
-              if (updateTime > 0 && (System.currentTimeMillis() - prevTime >= updateTime * 1000)) {
-                return getData()
-                    .flatMapMaybe(Maybe::just)
-                    .flatMapCompletable(ign1 -> {
-                      prevTime = System.currentTimeMillis();
-                      return Completable.complete();
-                    });
-              }
-              return Completable.complete();
-            })
-            .repeatUntil(() -> isEqualsWithAny(state, DeviceState.DISCONNECTED, DeviceState.ERROR, DeviceState.SWITCHED_OFF))
-            .subscribe()
-    );
+  @Override
+  public boolean isPollable() {
+    return !isEqualsWithAny(state, DeviceState.DISCONNECTED, DeviceState.ERROR, DeviceState.SWITCHED_OFF);
   }
 
-  private JsonObject handleMessage(JsonObject message) {
-    if (isInternalStatusOk(message)) {
-      state = DeviceState.CONNECTED;
-      DeviceAction action = getEnum(message.getString(COMMAND_ACTION_KEY), DeviceAction.class);
-      if (action == null) {
-        return message;
-      }
-      switch (action) {
-        case GET_DATA:
-          addMetric(message);
-          break;
-      }
-    } else {
-      state = DeviceState.ERROR;
+  @Override
+  public long getPollIntervalMillis() {
+    return updateTime > 0 ? updateTime * 1000L : DevicePollScheduler.DEFAULT_INTERVAL_MILLIS;
+  }
+
+  @Override
+  public Completable poll(long now) {
+    return connector
+        .isConnected()
+        .flatMapCompletable(isConnected -> {
+          if (!isConnected) {
+            setState(DeviceState.DISCONNECTED);
+          }
+          return Completable.complete();
+        })
+        .andThen(Completable.defer(() -> {
+          if (isPollable() && updateTime > 0 && now - prevTime >= updateTime * 1000L) {
+            prevTime = now;
+            // Status is refreshed with data, so the shadow has both of the same age
+            return fetchData()
+                .flatMap(data -> isInternalStatusOk(data) ? getStatus() : Single.just(data))
+                .ignoreElement();
+          }
+          return Completable.complete();
+        }));
+  }
+
+  private Single<JsonObject> fetchData() {
+    return getDeviceData()
+        .map(data -> {
+          if (!isInternalStatusOk(data)) {
+            if (DeviceState.ERROR.equals(getEnum(data.getString(STATUS_KEY), DeviceState.class))) {
+              setState(DeviceState.ERROR);
+            } else {
+              setState(DeviceState.DISCONNECTED);
+            }
+          } else {
+            updateShadowData(data);
+          }
+          addMetric(data);
+          return data;
+        });
+  }
+
+  private void handleMessage(JsonObject message) {
+    if (!isInternalStatusOk(message)) {
+      setState(DeviceState.ERROR);
+      return;
+    }
+    setState(DeviceState.CONNECTED);
+    DeviceAction action = getEnum(message.getString(COMMAND_ACTION_KEY), DeviceAction.class);
+    if (DeviceAction.GET_DATA.equals(action)) {
+      updateShadowData(message);
+      addMetric(message);
     }
-    return message;
+    handleEvent(message);
   }
 
-  private void addMetric(JsonObject message) {
-    JsonObject data = message.copy();
-    data.remove(INTERNAL_STATUS_KEY);
-    data.remove(EXTERNAL_STATUS_KEY);
-    data.put("time", Instant.now().toString());
-    metrics.add(data);
-    stripMetrics();
+  /**
+   * Subscribes to messages which the device sends by itself, they are handled as they arrive.
+   */
+  private void listenEvents() {
+    Disposable subscription = connector.events()
+        .subscribe(this::handleMessage, error -> setState(DeviceState.ERROR));
+    Disposable previous = events.getAndSet(subscription);
+    if (previous != null) {
+      previous.dispose();
+    }
   }
 
-  private void stripMetrics() {
-    if (metrics.size() > maxMetrics) {
-      while (metrics.size() > maxMetrics) {
-        metrics.remove(0);
+  private void stopEvents() {
+    Disposable subscription = events.getAndSet(null);
+    if (subscription != null) {
+      subscription.dispose();
+    }
+  }
+
+  /**
+   * Changes the state and notifies listeners. Synchronized, so listeners get changes in the order they happened.
+   */
+  private synchronized void setState(DeviceState newState) {
+    DeviceState oldState = state;
+    state = newState;
+    if (oldState != newState) {
+      for (DeviceStateListener listener : stateListeners) {
+        listener.onStateChanged(this, oldState, newState);
       }
     }
   }
 
+  private void clearShadow() {
+    shadow.set(DeviceShadow.EMPTY);
+  }
+
+  private void updateShadowData(JsonObject data) {
+    long now = System.currentTimeMillis();
+    shadow.updateAndGet(current -> current.withData(data, now));
+  }
+
+  private void addMetric(JsonObject message) {
+    metrics.add(System.currentTimeMillis(), message);
+  }
 }
@@ -61,7 +61,7 @@ public abstract class BaseDeviceImpl extends BaseDevice {
   }
 
   @Override
-  public Single<JsonObject> getStatus() {
+  protected Single<JsonObject> getDeviceStatus() {
     return connector.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, DeviceAction.GET_STATUS))
         .map(data -> {
           data.remove(COMMAND_ACTION_KEY);
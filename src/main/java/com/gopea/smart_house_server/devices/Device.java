@@ -23,7 +23,25 @@ public interface Device extends Connectible {
 
   Single<JsonArray> getMetrics();
 
+  /**
+   * Returns metrics with time in [from, to].
+   *
+   * @param from Start of the range in milliseconds, inclusive.
+   * @param to   End of the range in milliseconds, inclusive.
+   * @param step Size of rollup buckets in milliseconds, 0 for raw metrics.
+   */
+  Single<JsonArray> getMetrics(long from, long to, long step);
+
   Single<DeviceState> getState();
 
   DeviceType getType();
+
+  void addStateListener(DeviceStateListener listener);
+
+  void removeStateListener(DeviceStateListener listener);
+
+  /**
+   * Frees what the device holds, e.g. listeners on other devices. It's called once the device is deleted.
+   */
+  void release();
 }
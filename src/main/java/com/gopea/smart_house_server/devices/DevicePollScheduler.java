@@ -0,0 +1,143 @@
+package com.gopea.smart_house_server.devices;
+
+import io.reactivex.Completable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns polls of all connected devices on a small fixed pool of threads,
+ * so the number of threads doesn't depend on the number of registered devices.
+ * A device is woken up only when it's due: the next poll is scheduled after its interval
+ * once the previous one is finished.
+ */
+public final class DevicePollScheduler {
+
+  /**
+   * Interval of devices which don't poll data, they are only checked that they are still connected.
+   */
+  public static final long DEFAULT_INTERVAL_MILLIS = 5_000;
+  public static final int POOL_SIZE = 2;
+  public static final DevicePollScheduler SCHEDULER = new DevicePollScheduler(POOL_SIZE);
+
+  private final ScheduledExecutorService executor;
+  private final Map<Pollable, PollTask> tasks;
+
+  DevicePollScheduler(int poolSize) {
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.executor = Executors.newScheduledThreadPool(poolSize, runnable -> {
+      Thread thread = new Thread(runnable, "device-poll-" + threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.tasks = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Starts periodic polling of the device. Previous registration of the same device is replaced,
+   * so it's also used to re-arm the device after its interval is changed.
+   *
+   * @param pollable The device to poll.
+   */
+  public void register(Pollable pollable) {
+    PollTask task = new PollTask(pollable);
+    PollTask previous = tasks.put(pollable, task);
+    if (previous != null) {
+      previous.cancel();
+    }
+    task.future = executor.schedule(task, 0, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops polling of the device.
+   *
+   * @param pollable The device to stop polling.
+   */
+  public void unregister(Pollable pollable) {
+    PollTask task = tasks.remove(pollable);
+    if (task != null) {
+      task.cancel();
+    }
+  }
+
+  public boolean isRegistered(Pollable pollable) {
+    return tasks.containsKey(pollable);
+  }
+
+  public int size() {
+    return tasks.size();
+  }
+
+  /**
+   * Something that should be periodically checked by the scheduler.
+   */
+  public interface Pollable {
+
+    /**
+     * @return false if polling should be stopped.
+     */
+    boolean isPollable();
+
+    /**
+     * @return Delay between the end of a poll and the next one.
+     */
+    long getPollIntervalMillis();
+
+    /**
+     * Makes one check. It is called again only after the returned Completable is terminated.
+     *
+     * @param now Current time in milliseconds.
+     */
+    Completable poll(long now);
+  }
+
+  private final class PollTask implements Runnable {
+    private final Pollable pollable;
+    private volatile ScheduledFuture<?> future;
+    private volatile boolean cancelled;
+
+    private PollTask(Pollable pollable) {
+      this.pollable = pollable;
+    }
+
+    @Override
+    public void run() {
+      if (cancelled) {
+        return;
+      }
+      if (!pollable.isPollable()) {
+        tasks.remove(pollable, this);
+        cancel();
+        return;
+      }
+      try {
+        pollable.poll(System.currentTimeMillis())
+            .doFinally(this::scheduleNext)
+            .subscribe(() -> {
+            }, Throwable::printStackTrace);
+      } catch (Exception e) {
+        e.printStackTrace();
+        scheduleNext();
+      }
+    }
+
+    private void scheduleNext() {
+      if (!cancelled) {
+        future = executor.schedule(this, Math.max(pollable.getPollIntervalMillis(), 1), TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private void cancel() {
+      cancelled = true;
+      ScheduledFuture<?> current = future;
+      if (current != null) {
+        current.cancel(false);
+      }
+    }
+  }
+}
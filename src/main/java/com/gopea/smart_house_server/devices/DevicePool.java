@@ -4,17 +4,24 @@ import com.gopea.smart_house_server.common.Helpers;
 import com.gopea.smart_house_server.common.InternalStatus;
 import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.connectors.Connectible;
-import io.reactivex.Completable;
 import io.reactivex.Flowable;
-import io.reactivex.Maybe;
 import io.reactivex.Single;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
@@ -23,25 +30,74 @@ import static com.gopea.smart_house_server.common.Helpers.createResponseJson;
 import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
 import static com.gopea.smart_house_server.data_base.Storages.DEVICE_STORAGE;
 import static com.gopea.smart_house_server.data_base.Storages.ID;
+import static com.gopea.smart_house_server.devices.BaseDevice.MAX_UPDATE_TIME;
 import static com.gopea.smart_house_server.devices.BaseDevice.UPDATE_TIME_KEY;
 import static com.gopea.smart_house_server.devices.Devices.DEVICE_TYPE_KEY;
 
 public class DevicePool implements Device {
-    private final List<Pair<String, Device>> devices;
+    private final PoolMembers devices;
     private final DeviceType type;
+    private final List<DeviceStateListener> stateListeners;
     public static final String RESPONSES_KEY = "responses";
     public static final String ADD_KEY = "add";
     public static final String REMOVE_KEY = "remove";
+    public static final String MAX_CONCURRENCY_KEY = "max_concurrency";
+    public static final String COMMAND_TIMEOUT_KEY = "command_timeout";
+    public static final String TIMED_OUT_KEY = "timed_out";
+    public static final String SUMMARY_KEY = "summary";
+    public static final String TOTAL_KEY = "total";
+    public static final String FAILED_KEY = "failed";
+    public static final String STATE_KEY = "state";
+    public static final String STATES_KEY = "states";
+    public static final int DEFAULT_MAX_CONCURRENCY = 32;
+    public static final long DEFAULT_COMMAND_TIMEOUT_MILLIS = 10_000;
+
+    private volatile int maxConcurrency;
+    private volatile long commandTimeoutMillis;
+
+    /**
+     * States of members and their counts are changed by state events of members, so the state
+     * of the pool is got without sending commands to them. Guarded by the pool.
+     */
+    private final Map<String, DeviceState> memberStates;
+    private final Map<String, DeviceStateListener> memberListeners;
+    private final int[] stateCounts;
+    private DeviceState state;
+    private long stateUpdatedAt;
 
     public DevicePool(List<Pair<String, Device>> devices, DeviceType type) {
-        this.devices = devices;
+        this(devices, type, DEFAULT_MAX_CONCURRENCY, DEFAULT_COMMAND_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxConcurrency       How many devices get a command at once.
+     * @param commandTimeoutMillis How long a device could answer a command, devices which don't answer
+     *                             are reported as timed out. So a command to the pool takes not more than
+     *                             ceil(size / maxConcurrency) * commandTimeoutMillis.
+     */
+    public DevicePool(List<Pair<String, Device>> devices, DeviceType type, int maxConcurrency, long commandTimeoutMillis) {
+        if (maxConcurrency <= 0 || commandTimeoutMillis <= 0) {
+            throw new IllegalArgumentException(String.format("%s and %s should be positive", MAX_CONCURRENCY_KEY, COMMAND_TIMEOUT_KEY));
+        }
         this.type = type;
+        this.maxConcurrency = maxConcurrency;
+        this.commandTimeoutMillis = commandTimeoutMillis;
+        this.stateListeners = new CopyOnWriteArrayList<>();
+        this.memberStates = new HashMap<>();
+        this.memberListeners = new ConcurrentHashMap<>();
+        this.stateCounts = new int[DeviceState.values().length];
+        this.state = DeviceState.CONNECTED;
         for (Pair<String, Device> pair : devices) {
             if (!pair.getRight().getType().equals(type)) {
                 throw new RuntimeException(String.format("Types %s and %s are different, You should add only %s", type.toString().toLowerCase(),
                         pair.getRight().getType().toString().toLowerCase(), type.toString().toLowerCase()));
             }
         }
+        // Pools are changed and iterated by requests from several event loops
+        this.devices = new PoolMembers(devices);
+        for (Pair<String, Device> pair : this.devices) {
+            trackMember(pair.getLeft(), pair.getRight());
+        }
     }
 
     @Override
@@ -71,70 +127,89 @@ public class DevicePool implements Device {
 
     @Override
     public JsonObject toJson() {
-        JsonArray array = new JsonArray();
-        for (Pair<String, Device> pair : devices) {
-            array.add(pair.getLeft());
-        }
-
         return new JsonObject()
-                .put("devices", array)
-                .put(DEVICE_TYPE_KEY, type.toString().toLowerCase());
+                .put("devices", new JsonArray(devices.ids()))
+                .put(DEVICE_TYPE_KEY, type.toString().toLowerCase())
+                .put(MAX_CONCURRENCY_KEY, maxConcurrency)
+                .put(COMMAND_TIMEOUT_KEY, commandTimeoutMillis);
     }
 
+    /**
+     * Changes the update time of devices, limits and members of the pool. Devices which are added or removed
+     * are looked up in the storage with one call. The whole request is validated and members are updated
+     * before the pool is changed, so a rejected or failed one leaves the pool as it was.
+     */
     @Override
     public Single<JsonObject> update(JsonObject object) {
-        Single<JsonObject> objectSingle = null;
-        if (object.containsKey(UPDATE_TIME_KEY)) {
-            objectSingle = cloneCommand(device -> device.update(object));
-        }
-
         if (object.isEmpty()) {
             return Single.just(createResponseJson(InternalStatus.FAILED,
                     StatusCode.BAD_REQUEST,
                     new JsonObject().put(MESSAGE_KEY, "Empty body is invalid")));
         }
-        JsonArray removeArray = object.getJsonArray(REMOVE_KEY, new JsonArray());
-        JsonArray addArray = object.getJsonArray(ADD_KEY, new JsonArray());
-
-        JsonObject resp1 = checkTypeAndExists(addArray);
-        if (!isInternalStatusOk(resp1)) {
-            return Single.just(resp1);
+        JsonObject limits = validateLimits(object);
+        if (!isInternalStatusOk(limits)) {
+            return Single.just(limits);
         }
-
-        resp1 = checkTypeAndExists(removeArray);
-        if (!isInternalStatusOk(resp1)) {
-            return Single.just(resp1);
+        Object updateTimeParam = object.getValue(UPDATE_TIME_KEY);
+        if (updateTimeParam != null && (!(updateTimeParam instanceof Integer)
+                || (Integer) updateTimeParam < 0 || (Integer) updateTimeParam > MAX_UPDATE_TIME)) {
+            return Single.just(createResponseJson(InternalStatus.FAILED, StatusCode.BAD_REQUEST,
+                    new JsonObject().put(MESSAGE_KEY, "You couldn't set update_time less than 0 or more than 7 days")));
         }
-
-        resp1 = isRemoveDeviceInPool(removeArray);
-        if (!isInternalStatusOk(resp1)) {
-            return Single.just(resp1);
+        JsonArray removeArray = object.getJsonArray(REMOVE_KEY, new JsonArray());
+        JsonArray addArray = object.getJsonArray(ADD_KEY, new JsonArray());
+        JsonObject idsResponse = checkIds(addArray);
+        if (!isInternalStatusOk(idsResponse)) {
+            return Single.just(idsResponse);
         }
-
-        removeDevices(removeArray);
-
-        if (objectSingle == null) {
-            objectSingle = Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK));
+        idsResponse = checkIds(removeArray);
+        if (!isInternalStatusOk(idsResponse)) {
+            return Single.just(idsResponse);
         }
-        return
-                objectSingle
-                        .flatMap(resp -> {
-                            if (!isInternalStatusOk(resp)) {
-                                return Single.just(resp);
-                            }
-                            return addDevices(addArray)
-                                    .map(response -> {
-                                        if (!isInternalStatusOk(response)) {
-                                            return response;
-                                        }
-                                        JsonObject object1 = toJson();
-                                        object1.remove(DEVICE_TYPE_KEY);
-                                        object1.put(INTERNAL_STATUS_KEY, InternalStatus.OK);
-                                        object1.put(EXTERNAL_STATUS_KEY, StatusCode.SUCCESS.getStatusCode());
-                                        return object1;
-                                    });
-                        });
-
+        List<String> addIds = toIds(addArray);
+        List<String> removeIds = toIds(removeArray);
+        Set<String> ids = new LinkedHashSet<>(addIds);
+        ids.addAll(removeIds);
+
+        return DEVICE_STORAGE.getDevices(ids)
+                .flatMap(found -> {
+                    JsonObject response = checkTypeAndExists(addIds, found);
+                    if (!isInternalStatusOk(response)) {
+                        return Single.just(response);
+                    }
+                    response = checkTypeAndExists(removeIds, found);
+                    if (!isInternalStatusOk(response)) {
+                        return Single.just(response);
+                    }
+                    response = isRemoveDeviceInPool(removeIds);
+                    if (!isInternalStatusOk(response)) {
+                        return Single.just(response);
+                    }
+                    // Members are updated first, the pool is changed only if all of them accepted the update
+                    Set<Device> leaving = new HashSet<>();
+                    for (String id : removeIds) {
+                        leaving.add(devices.get(id));
+                    }
+                    Single<JsonObject> updateTime = updateTimeParam != null
+                            ? cloneCommand(device -> leaving.contains(device)
+                                    ? Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK))
+                                    : device.update(object))
+                            : Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK));
+                    return updateTime
+                            .flatMap(resp -> {
+                                if (!isInternalStatusOk(resp)) {
+                                    return Single.just(resp);
+                                }
+                                applyLimits(object);
+                                removeDevices(removeIds);
+                                addDevices(addIds, found);
+                                JsonObject object1 = toJson();
+                                object1.remove(DEVICE_TYPE_KEY);
+                                object1.put(INTERNAL_STATUS_KEY, InternalStatus.OK);
+                                object1.put(EXTERNAL_STATUS_KEY, StatusCode.SUCCESS.getStatusCode());
+                                return Single.just(object1);
+                            });
+                });
     }
 
     @Override
@@ -148,9 +223,42 @@ public class DevicePool implements Device {
 
     }
 
+    @Override
+    public Single<JsonArray> getMetrics(long from, long to, long step) {
+        return Flowable.fromIterable(devices)
+                .flatMapSingle(pair -> pair.getRight().getMetrics(from, to, step)
+                        .map(response -> new JsonObject()
+                                .put(ID, pair.getLeft())
+                                .put("metrics", response)))
+                .collectInto(new JsonArray(), JsonArray::add);
+    }
+
     @Override
     public Single<DeviceState> getState() {
-        return Single.just(DeviceState.CONNECTED);
+        return Single.fromCallable(this::getCurrentState);
+    }
+
+    /**
+     * @return Aggregate state of the pool and numbers of members in every state, e.g.
+     * {"state": "error", "states": {"connected": 47, "error": 3, ...}, "total": 50, "updated_at": ...}.
+     * It's built from state events of members, so no command is sent to them.
+     */
+    public synchronized JsonObject getHealth() {
+        JsonObject states = new JsonObject();
+        int total = 0;
+        for (DeviceState deviceState : DeviceState.values()) {
+            states.put(deviceState.toString().toLowerCase(), stateCounts[deviceState.ordinal()]);
+            total += stateCounts[deviceState.ordinal()];
+        }
+        return new JsonObject()
+                .put(STATE_KEY, state.toString().toLowerCase())
+                .put(STATES_KEY, states)
+                .put(TOTAL_KEY, total)
+                .put(DeviceShadow.UPDATED_AT_KEY, stateUpdatedAt);
+    }
+
+    private synchronized DeviceState getCurrentState() {
+        return state;
     }
 
     @Override
@@ -158,6 +266,26 @@ public class DevicePool implements Device {
         return type;
     }
 
+    @Override
+    public void addStateListener(DeviceStateListener listener) {
+        stateListeners.add(listener);
+    }
+
+    @Override
+    public void removeStateListener(DeviceStateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    /**
+     * Stops tracking states of members, they could outlive the pool.
+     */
+    @Override
+    public void release() {
+        for (Pair<String, Device> pair : devices) {
+            untrackMember(pair.getLeft(), pair.getRight());
+        }
+    }
+
     @Override
     public Single<JsonObject> connect() {
         return cloneCommand(Device::connect);
@@ -169,80 +297,137 @@ public class DevicePool implements Device {
     }
 
 
-    private Single<JsonObject> cloneCommand(Command command) {
+    /**
+     * Checks max concurrency and command timeout if they are in the object, both a new pool and an update
+     * of one are checked by it.
+     *
+     * @return OK response or a bad request one with the reason.
+     */
+    public static JsonObject validateLimits(JsonObject object) {
+        Object concurrency = object.getValue(MAX_CONCURRENCY_KEY);
+        Object timeout = object.getValue(COMMAND_TIMEOUT_KEY);
+        if ((concurrency != null && (!(concurrency instanceof Integer) || (Integer) concurrency <= 0))
+                || (timeout != null && (!(timeout instanceof Number) || ((Number) timeout).longValue() <= 0))) {
+            return createResponseJson(InternalStatus.FAILED, StatusCode.BAD_REQUEST,
+                    new JsonObject().put(MESSAGE_KEY, String.format("%s and %s should be positive numbers",
+                            MAX_CONCURRENCY_KEY, COMMAND_TIMEOUT_KEY)));
+        }
+        return new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK);
+    }
+
+    /**
+     * Sets max concurrency and command timeout if they are in the object, it should be validated.
+     */
+    private void applyLimits(JsonObject object) {
+        if (object.containsKey(MAX_CONCURRENCY_KEY)) {
+            maxConcurrency = object.getInteger(MAX_CONCURRENCY_KEY);
+        }
+        if (object.containsKey(COMMAND_TIMEOUT_KEY)) {
+            commandTimeoutMillis = ((Number) object.getValue(COMMAND_TIMEOUT_KEY)).longValue();
+        }
+    }
+
+    /**
+     * Sends the command to not more than maxConcurrency devices at once. A device which doesn't answer
+     * in commandTimeoutMillis or fails is reported as a failed response, so it doesn't fail the whole pool.
+     *
+     * @return Responses of devices with their ids in the order devices answer.
+     */
+    public Flowable<JsonObject> streamCommand(Command command) {
+        long timeoutMillis = commandTimeoutMillis;
         return Flowable.fromIterable(devices)
-                .flatMapSingle(pair -> command.execute(pair.getRight()).map(response -> response.put(ID, pair.getLeft())))
+                .flatMapSingle(pair -> Single.defer(() -> command.execute(pair.getRight()))
+                        .timeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                        .onErrorReturn(error -> {
+                            if (error instanceof TimeoutException) {
+                                return createResponseJson(InternalStatus.FAILED, StatusCode.UNAVAILABLE,
+                                        new JsonObject()
+                                                .put(TIMED_OUT_KEY, true)
+                                                .put(MESSAGE_KEY, String.format("Device didn't answer in %d ms", timeoutMillis)));
+                            }
+                            return createResponseJson(InternalStatus.FAILED, StatusCode.ERROR,
+                                    new JsonObject().put(MESSAGE_KEY, error.getMessage()));
+                        })
+                        .map(response -> response.put(ID, pair.getLeft())), false, maxConcurrency);
+    }
+
+    /**
+     * @return Aggregate status of a command to the pool, it's failed if any device failed.
+     */
+    public static JsonObject summarize(int total, int failed) {
+        InternalStatus status = failed == 0 ? InternalStatus.OK : InternalStatus.FAILED;
+        return new JsonObject()
+                .put(INTERNAL_STATUS_KEY, status)
+                .put(EXTERNAL_STATUS_KEY, status.isOk ? StatusCode.SUCCESS.getStatusCode() : StatusCode.ERROR.getStatusCode())
+                .put(TOTAL_KEY, total)
+                .put(FAILED_KEY, failed);
+    }
+
+    private Single<JsonObject> cloneCommand(Command command) {
+        return streamCommand(command)
                 .collectInto(new JsonArray(), JsonArray::add)
                 .map(array -> {
-
-                    InternalStatus status = InternalStatus.OK;
+                    int failed = 0;
                     for (int i = 0; i < array.size(); i++) {
                         JsonObject object = array.getJsonObject(i);
                         if (!isInternalStatusOk(object)) {
-                            status = InternalStatus.FAILED;
+                            failed++;
                         }
                         object.remove(INTERNAL_STATUS_KEY);
                         object.remove(EXTERNAL_STATUS_KEY);
                     }
-                    JsonObject response = new JsonObject()
-                            .put(INTERNAL_STATUS_KEY, status)
+                    return summarize(array.size(), failed)
                             .put(RESPONSES_KEY, array);
-
-                    if (status.isOk) {
-                        return response.put(EXTERNAL_STATUS_KEY, StatusCode.SUCCESS.getStatusCode());
-                    }
-                    return response.put(EXTERNAL_STATUS_KEY, StatusCode.ERROR.getStatusCode());
                 });
     }
 
-    private interface Command {
+    /**
+     * Command which is sent to every device of the pool.
+     */
+    @FunctionalInterface
+    public interface Command {
         Single<JsonObject> execute(Device device);
     }
 
-    private JsonObject checkTypeAndExists(JsonArray array) {
+    private static JsonObject checkIds(JsonArray array) {
         for (int i = 0; i < array.size(); i++) {
             if (!(array.getValue(i) instanceof String)) {
                 return createResponseJson(InternalStatus.FAILED,
                         StatusCode.UNPROCESSABLE_ENTITY,
                         new JsonObject().put(MESSAGE_KEY, "id should have String type"));
             }
-            String id = array.getString(i);
-            JsonObject response = new JsonObject();
-            DEVICE_STORAGE.getDevice(id)
-                    .map(Device::getType)
-                    .map(deviceType -> {
-                        if (!deviceType.equals(type)) {
-                            return createResponseJson(InternalStatus.FAILED,
-                                    StatusCode.UNPROCESSABLE_ENTITY,
-                                    new JsonObject().put(MESSAGE_KEY,
-                                            String.format("You can add only devices with type %s to this pool", type.toString().toLowerCase())));
-                        }
-                        return new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK);
-                    })
-                    .doOnSuccess(response::mergeIn)
-                    .switchIfEmpty(Single.fromCallable(() ->
-                            response.mergeIn(createResponseJson(InternalStatus.FAILED, StatusCode.UNPROCESSABLE_ENTITY,
-                                    new JsonObject().put(MESSAGE_KEY, String.format("Device with id: %s doesn't exists", id))))
-                    ))
-                    .subscribe();
-            if (!isInternalStatusOk(response)) {
-                return response;
-            }
         }
         return new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK);
     }
 
-    private JsonObject isRemoveDeviceInPool(JsonArray removeIds) {
-        for (int i = 0; i < removeIds.size(); i++) {
-            String id = removeIds.getString(i);
-            boolean found = false;
-            for (Pair<String, Device> pair : devices) {
-                if (id.equals(pair.getLeft())) {
-                    found = true;
-                    break;
-                }
+    private static List<String> toIds(JsonArray array) {
+        List<String> ids = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            ids.add(array.getString(i));
+        }
+        return ids;
+    }
+
+    private JsonObject checkTypeAndExists(List<String> ids, Map<String, Device> found) {
+        for (String id : ids) {
+            Device device = found.get(id);
+            if (device == null) {
+                return createResponseJson(InternalStatus.FAILED, StatusCode.UNPROCESSABLE_ENTITY,
+                        new JsonObject().put(MESSAGE_KEY, String.format("Device with id: %s doesn't exists", id)));
             }
-            if (!found) {
+            if (!device.getType().equals(type)) {
+                return createResponseJson(InternalStatus.FAILED,
+                        StatusCode.UNPROCESSABLE_ENTITY,
+                        new JsonObject().put(MESSAGE_KEY,
+                                String.format("You can add only devices with type %s to this pool", type.toString().toLowerCase())));
+            }
+        }
+        return new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK);
+    }
+
+    private JsonObject isRemoveDeviceInPool(List<String> removeIds) {
+        for (String id : removeIds) {
+            if (!devices.contains(id)) {
                 return createResponseJson(InternalStatus.FAILED, StatusCode.UNPROCESSABLE_ENTITY,
                         new JsonObject().put(MESSAGE_KEY, String.format("Pool doesn't have device with id: %s", id)));
             }
@@ -250,43 +435,90 @@ public class DevicePool implements Device {
         return new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK);
     }
 
-    private void removeDevices(JsonArray array) {
-        for (int i = 0; i < array.size(); i++) {
-            String id = array.getString(i);
-            for (Pair<String, Device> pair : devices) {
-                if (pair.getLeft().equals(id)) {
-                    devices.remove(pair);
-                    break;
-                }
+    private void removeDevices(List<String> ids) {
+        for (String id : ids) {
+            Device device = devices.get(id);
+            if (devices.remove(id)) {
+                untrackMember(id, device);
             }
         }
     }
 
-    //TODO: Improve it
-    private Single<JsonObject> addDevices(JsonArray array) {
-        for (int i = 0; i < array.size(); i++) {
-            String id = array.getString(i);
-            JsonObject object = new JsonObject();
-            DEVICE_STORAGE.getDevice(id)
-                    .flatMap(device -> {
-                        devices.add(new ImmutablePair<>(id, device));
-                        return device.connect()
-                        .flatMapMaybe(ign->Maybe.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK)));
-                    })
-                    .doOnSuccess(object::mergeIn)
-                    .switchIfEmpty(Maybe.defer(() -> {
-                        object.mergeIn(
-                                createResponseJson(InternalStatus.FAILED,
-                                        StatusCode.NOT_FOUND,
-                                        new JsonObject().put(MESSAGE_KEY, "Not found device with id " + id)));
-
-                        return Maybe.empty();
-                    }))
-                    .subscribe();
-            if (!isInternalStatusOk(object)) {
-                return Single.just(object);
+    /**
+     * Adds devices to the pool and connects them in the background, so the update doesn't wait for them.
+     * A device which can't connect stays in the pool and is reported by later commands.
+     */
+    private void addDevices(List<String> ids, Map<String, Device> found) {
+        List<Device> added = new ArrayList<>();
+        for (String id : ids) {
+            Device device = found.get(id);
+            if (devices.add(id, device)) {
+                trackMember(id, device);
+                added.add(device);
+            }
+        }
+        long timeoutMillis = commandTimeoutMillis;
+        Flowable.fromIterable(added)
+                .flatMapCompletable(device -> device.connect()
+                        .timeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                        .ignoreElement()
+                        .doOnError(error -> System.out.println(String.format("Can't connect device added to the pool: %s",
+                                error.getMessage())))
+                        .onErrorComplete(), false, maxConcurrency)
+                .subscribe();
+    }
+
+    private void trackMember(String id, Device device) {
+        DeviceStateListener listener = (ign, oldState, newState) -> setMemberState(id, newState);
+        memberListeners.put(id, listener);
+        device.addStateListener(listener);
+        Single.defer(device::getState)
+                .subscribe(memberState -> setMemberState(id, memberState), error -> {
+                    // The state is counted after the first change
+                });
+    }
+
+    private void untrackMember(String id, Device device) {
+        DeviceStateListener listener = memberListeners.remove(id);
+        if (listener != null) {
+            device.removeStateListener(listener);
+        }
+        synchronized (this) {
+            DeviceState oldState = memberStates.remove(id);
+            if (oldState != null) {
+                stateCounts[oldState.ordinal()]--;
+                updateState();
+            }
+        }
+    }
+
+    private synchronized void setMemberState(String id, DeviceState newState) {
+        // Events of removed members are late
+        if (!memberListeners.containsKey(id)) {
+            return;
+        }
+        DeviceState oldState = memberStates.put(id, newState);
+        if (oldState == newState) {
+            return;
+        }
+        if (oldState != null) {
+            stateCounts[oldState.ordinal()]--;
+        }
+        stateCounts[newState.ordinal()]++;
+        updateState();
+    }
+
+    /**
+     * The pool is in error if any member is, otherwise it's connected as commands could be sent to it.
+     */
+    private synchronized void updateState() {
+        stateUpdatedAt = System.currentTimeMillis();
+        DeviceState oldState = state;
+        state = stateCounts[DeviceState.ERROR.ordinal()] > 0 ? DeviceState.ERROR : DeviceState.CONNECTED;
+        if (oldState != state) {
+            for (DeviceStateListener listener : stateListeners) {
+                listener.onStateChanged(this, oldState, state);
             }
         }
-        return Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK));
     }
 }
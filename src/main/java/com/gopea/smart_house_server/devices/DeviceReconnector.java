@@ -0,0 +1,111 @@
+package com.gopea.smart_house_server.devices;
+
+import com.gopea.smart_house_server.common.InternalStatus;
+import com.gopea.smart_house_server.configs.StatusCode;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.MESSAGE_KEY;
+import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
+
+/**
+ * Connects restored devices in the background. Not more than maxConcurrency connects run at once
+ * and a new connect is started not earlier than interval after the previous one.
+ */
+public class DeviceReconnector {
+
+  public static final int DEFAULT_MAX_CONCURRENCY = 16;
+  public static final long DEFAULT_INTERVAL_MILLIS = 5;
+  public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+  public static final String TOTAL_KEY = "total";
+  public static final String CONNECTED_KEY = "connected";
+  public static final String FAILED_KEY = "failed";
+  public static final DeviceReconnector RECONNECTOR = new DeviceReconnector();
+
+  private final int maxConcurrency;
+  private final long intervalMillis;
+  private final long connectTimeoutMillis;
+  private final AtomicInteger total;
+  private final AtomicInteger connected;
+  private final AtomicInteger failed;
+
+  public DeviceReconnector() {
+    this(DEFAULT_MAX_CONCURRENCY, DEFAULT_INTERVAL_MILLIS, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+  }
+
+  public DeviceReconnector(int maxConcurrency, long intervalMillis, long connectTimeoutMillis) {
+    if (maxConcurrency <= 0) {
+      throw new IllegalArgumentException("Max concurrency should be positive");
+    }
+    this.maxConcurrency = maxConcurrency;
+    this.intervalMillis = intervalMillis;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.total = new AtomicInteger();
+    this.connected = new AtomicInteger();
+    this.failed = new AtomicInteger();
+  }
+
+  /**
+   * Connects devices. Pools are skipped, because they are connected with their devices.
+   * Devices which fail to connect stay disconnected.
+   *
+   * @param devices Devices to connect.
+   * @return Completable which completes when every device is connected or failed.
+   */
+  public Completable reconnect(List<Pair<String, Device>> devices) {
+    List<Pair<String, Device>> baseDevices = new ArrayList<>();
+    for (Pair<String, Device> pair : devices) {
+      if (pair.getRight() instanceof BaseDevice) {
+        baseDevices.add(pair);
+      }
+    }
+    total.addAndGet(baseDevices.size());
+    // A device is let through interval after it's requested, so connects don't burst after a stall
+    return Flowable.fromIterable(baseDevices)
+        .concatMap(pair -> Flowable.just(pair).delay(intervalMillis, TimeUnit.MILLISECONDS), 1)
+        .flatMapSingle(pair -> connect(pair.getLeft(), pair.getRight()), false, maxConcurrency)
+        .ignoreElements()
+        .doOnComplete(() -> System.out.println(String.format("Reconnect finished: %s", getProgress().encode())));
+  }
+
+  /**
+   * @return Number of devices to connect, connected and failed ones.
+   */
+  public JsonObject getProgress() {
+    return new JsonObject()
+        .put(TOTAL_KEY, total.get())
+        .put(CONNECTED_KEY, connected.get())
+        .put(FAILED_KEY, failed.get());
+  }
+
+  private Single<JsonObject> connect(String id, Device device) {
+    return device.connect()
+        .timeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+        .onErrorReturn(error -> new JsonObject()
+            .put(INTERNAL_STATUS_KEY, InternalStatus.FAILED)
+            .put(EXTERNAL_STATUS_KEY, StatusCode.UNAVAILABLE.getStatusCode())
+            .put(MESSAGE_KEY, error.getMessage()))
+        .doOnSuccess(response -> {
+          if (isInternalStatusOk(response)) {
+            connected.incrementAndGet();
+          } else {
+            failed.incrementAndGet();
+            System.out.println(String.format("Can't connect device %s: %s", id, response.getString(MESSAGE_KEY)));
+          }
+          int done = connected.get() + failed.get();
+          if (done % 1000 == 0) {
+            System.out.println(String.format("Reconnected %d devices: %s", done, getProgress().encode()));
+          }
+        });
+  }
+}
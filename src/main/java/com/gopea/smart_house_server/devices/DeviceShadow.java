@@ -0,0 +1,59 @@
+package com.gopea.smart_house_server.devices;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Last known data and status of a device with times they were got. Immutable, a change makes a new shadow.
+ */
+public final class DeviceShadow {
+
+  public static final String UPDATED_AT_KEY = "updated_at";
+  static final DeviceShadow EMPTY = new DeviceShadow(null, 0, null, 0);
+
+  private final JsonObject data;
+  private final long dataTime;
+  private final JsonObject status;
+  private final long statusTime;
+
+  private DeviceShadow(JsonObject data, long dataTime, JsonObject status, long statusTime) {
+    this.data = data;
+    this.dataTime = dataTime;
+    this.status = status;
+    this.statusTime = statusTime;
+  }
+
+  DeviceShadow withData(JsonObject data, long time) {
+    return new DeviceShadow(data.copy(), time, status, statusTime);
+  }
+
+  DeviceShadow withStatus(JsonObject status, long time) {
+    return new DeviceShadow(data, dataTime, status.copy(), time);
+  }
+
+  /**
+   * @return true if both data and status are known.
+   */
+  public boolean isComplete() {
+    return data != null && status != null;
+  }
+
+  /**
+   * @return Time of the oldest part of the shadow, 0 if it isn't complete.
+   */
+  public long getUpdatedAt() {
+    return isComplete() ? Math.min(dataTime, statusTime) : 0;
+  }
+
+  /**
+   * @return Data merged with status as a GET of the device returns them and the time of the shadow,
+   * null if the shadow isn't complete.
+   */
+  public JsonObject toJson() {
+    if (!isComplete()) {
+      return null;
+    }
+    return data.copy()
+        .mergeIn(status)
+        .put(UPDATED_AT_KEY, getUpdatedAt());
+  }
+}
@@ -0,0 +1,14 @@
+package com.gopea.smart_house_server.devices;
+
+@FunctionalInterface
+public interface DeviceStateListener {
+
+  /**
+   * Is called after the state of the device is changed.
+   *
+   * @param device   The device.
+   * @param oldState Previous state.
+   * @param newState Current state.
+   */
+  void onStateChanged(Device device, DeviceState oldState, DeviceState newState);
+}
@@ -0,0 +1,212 @@
+package com.gopea.smart_house_server.devices;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
+
+/**
+ * Fixed-capacity ring buffer of device metrics. When it's full, the oldest sample is overwritten.
+ * Samples are stored as they are and converted to json only on read.
+ */
+public class MetricsStore {
+
+  public static final String TIME_KEY = "time";
+  public static final String FROM_KEY = "from";
+  public static final String TO_KEY = "to";
+  public static final String COUNT_KEY = "count";
+  public static final String MIN_KEY = "min";
+  public static final String MAX_KEY = "max";
+  public static final String AVG_KEY = "avg";
+  public static final String LAST_KEY = "last";
+
+  private final long[] timestamps;
+  private final JsonObject[] samples;
+  private int head;
+  private int size;
+
+  public MetricsStore(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity should be positive");
+    }
+    timestamps = new long[capacity];
+    samples = new JsonObject[capacity];
+  }
+
+  /**
+   * Adds the sample. The sample shouldn't be changed after adding.
+   *
+   * @param timestamp Time of the sample in milliseconds.
+   * @param sample    The sample.
+   */
+  public synchronized void add(long timestamp, JsonObject sample) {
+    if (size > 0) {
+      // Timestamps are kept sorted, so they can be binary searched
+      timestamp = Math.max(timestamp, timestamps[physicalIndex(size - 1)]);
+    }
+    int index = (head + size) % samples.length;
+    if (size == samples.length) {
+      head = (head + 1) % samples.length;
+    } else {
+      size++;
+    }
+    timestamps[index] = timestamp;
+    samples[index] = sample;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return samples.length;
+  }
+
+  public synchronized JsonArray toJsonArray() {
+    JsonArray array = new JsonArray();
+    for (int i = 0; i < size; i++) {
+      int index = physicalIndex(i);
+      array.add(toJson(timestamps[index], samples[index]));
+    }
+    return array;
+  }
+
+  /**
+   * Returns samples with time in [from, to]. If step is positive, samples are grouped into buckets of step
+   * milliseconds and every bucket is returned as min, max, avg of numeric fields and the last sample.
+   *
+   * @param from Start of the range in milliseconds, inclusive.
+   * @param to   End of the range in milliseconds, inclusive.
+   * @param step Bucket size in milliseconds, 0 for raw samples.
+   * @return Samples or buckets ordered by time.
+   */
+  public synchronized JsonArray query(long from, long to, long step) {
+    JsonArray array = new JsonArray();
+    int start = lowerBound(from);
+    int end = lowerBound(to == Long.MAX_VALUE ? to : to + 1);
+    if (step <= 0) {
+      for (int i = start; i < end; i++) {
+        int index = physicalIndex(i);
+        array.add(toJson(timestamps[index], samples[index]));
+      }
+      return array;
+    }
+    Bucket bucket = null;
+    for (int i = start; i < end; i++) {
+      int index = physicalIndex(i);
+      long bucketStart = timestamps[index] - Math.floorMod(timestamps[index], step);
+      if (bucket == null || bucket.start != bucketStart) {
+        if (bucket != null) {
+          array.add(bucket.toJson());
+        }
+        bucket = new Bucket(bucketStart, step);
+      }
+      bucket.add(timestamps[index], samples[index]);
+    }
+    if (bucket != null) {
+      array.add(bucket.toJson());
+    }
+    return array;
+  }
+
+  private int physicalIndex(int logicalIndex) {
+    return (head + logicalIndex) % samples.length;
+  }
+
+  /**
+   * @return The first logical index with timestamp not less than the time, or size.
+   */
+  private int lowerBound(long time) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (timestamps[physicalIndex(middle)] < time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  static JsonObject toJson(long timestamp, JsonObject sample) {
+    JsonObject object = new JsonObject();
+    for (Map.Entry<String, Object> entry : sample) {
+      if (!INTERNAL_STATUS_KEY.equals(entry.getKey()) && !EXTERNAL_STATUS_KEY.equals(entry.getKey())) {
+        object.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return object.put(TIME_KEY, Instant.ofEpochMilli(timestamp).toString());
+  }
+
+  private static class Bucket {
+    private final long start;
+    private final long step;
+    private final Map<String, double[]> numbers = new LinkedHashMap<>();
+    private int count;
+    private long lastTimestamp;
+    private JsonObject last;
+
+    private Bucket(long start, long step) {
+      this.start = start;
+      this.step = step;
+    }
+
+    private void add(long timestamp, JsonObject sample) {
+      count++;
+      lastTimestamp = timestamp;
+      last = sample;
+      addNumbers("", sample);
+    }
+
+    private void addNumbers(String prefix, JsonObject object) {
+      for (Map.Entry<String, Object> entry : object) {
+        String key = entry.getKey();
+        if (INTERNAL_STATUS_KEY.equals(key) || EXTERNAL_STATUS_KEY.equals(key)) {
+          continue;
+        }
+        Object value = entry.getValue();
+        if (value instanceof JsonObject) {
+          addNumbers(prefix + key + ".", (JsonObject) value);
+        } else if (value instanceof Number) {
+          double number = ((Number) value).doubleValue();
+          double[] stats = numbers.get(prefix + key);
+          if (stats == null) {
+            numbers.put(prefix + key, new double[]{number, number, number, 1});
+          } else {
+            stats[0] = Math.min(stats[0], number);
+            stats[1] = Math.max(stats[1], number);
+            stats[2] += number;
+            stats[3]++;
+          }
+        }
+      }
+    }
+
+    private JsonObject toJson() {
+      JsonObject min = new JsonObject();
+      JsonObject max = new JsonObject();
+      JsonObject avg = new JsonObject();
+      for (Map.Entry<String, double[]> entry : numbers.entrySet()) {
+        double[] stats = entry.getValue();
+        min.put(entry.getKey(), stats[0]);
+        max.put(entry.getKey(), stats[1]);
+        avg.put(entry.getKey(), stats[2] / stats[3]);
+      }
+      return new JsonObject()
+          .put(FROM_KEY, Instant.ofEpochMilli(start).toString())
+          .put(TO_KEY, Instant.ofEpochMilli(start + step).toString())
+          .put(COUNT_KEY, count)
+          .put(MIN_KEY, min)
+          .put(MAX_KEY, max)
+          .put(AVG_KEY, avg)
+          .put(LAST_KEY, MetricsStore.toJson(lastTimestamp, last));
+    }
+  }
+}
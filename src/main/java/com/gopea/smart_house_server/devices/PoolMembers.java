@@ -0,0 +1,101 @@
+package com.gopea.smart_house_server.devices;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Devices of a pool indexed by id in the order they were added. Contains, add and remove take O(1),
+ * iteration goes over a snapshot which is rebuilt only after a change, so members could be
+ * changed while a command is sent to them.
+ */
+final class PoolMembers implements Iterable<Pair<String, Device>> {
+
+    private final Map<String, Device> members = new LinkedHashMap<>();
+    private volatile List<Pair<String, Device>> snapshot = Collections.emptyList();
+    private volatile List<String> ids = Collections.emptyList();
+    private volatile boolean changed;
+
+    PoolMembers(Iterable<Pair<String, Device>> devices) {
+        for (Pair<String, Device> pair : devices) {
+            add(pair.getLeft(), pair.getRight());
+        }
+    }
+
+    synchronized boolean contains(String id) {
+        return members.containsKey(id);
+    }
+
+    synchronized Device get(String id) {
+        return members.get(id);
+    }
+
+    /**
+     * @return false if the pool already has a device with the id, it keeps its place.
+     */
+    synchronized boolean add(String id, Device device) {
+        if (members.containsKey(id)) {
+            return false;
+        }
+        members.put(id, device);
+        changed = true;
+        return true;
+    }
+
+    /**
+     * @return false if the pool doesn't have a device with the id.
+     */
+    synchronized boolean remove(String id) {
+        if (members.remove(id) == null) {
+            return false;
+        }
+        changed = true;
+        return true;
+    }
+
+    synchronized int size() {
+        return members.size();
+    }
+
+    /**
+     * @return Immutable members in the order they were added.
+     */
+    List<Pair<String, Device>> snapshot() {
+        if (!changed) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (changed) {
+                List<Pair<String, Device>> list = new ArrayList<>(members.size());
+                List<String> idList = new ArrayList<>(members.size());
+                for (Map.Entry<String, Device> entry : members.entrySet()) {
+                    list.add(new ImmutablePair<>(entry.getKey(), entry.getValue()));
+                    idList.add(entry.getKey());
+                }
+                ids = Collections.unmodifiableList(idList);
+                snapshot = Collections.unmodifiableList(list);
+                changed = false;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return Immutable ids in the order they were added, they are cached with the snapshot.
+     */
+    List<String> ids() {
+        snapshot();
+        return ids;
+    }
+
+    @Override
+    public Iterator<Pair<String, Device>> iterator() {
+        return snapshot().iterator();
+    }
+}
@@ -1,12 +1,12 @@
 package com.gopea.smart_house_server.routers;
 
+import com.gopea.smart_house_server.common.AuthCache;
 import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.data_base.Storages;
 import com.gopea.smart_house_server.routers.users.User;
 import com.gopea.smart_house_server.routers.users.UserType;
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
-import io.reactivex.Single;
 import io.vertx.reactivex.core.Vertx;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
@@ -15,12 +15,28 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.nio.charset.StandardCharsets;
+
 import static com.gopea.smart_house_server.common.Helpers.*;
+import static com.gopea.smart_house_server.common.TokenService.TOKEN_SERVICE;
 
 
 public class AuthRouter implements Routable {
 
     public static final String AUTH_HEADER = "Authorization";
+    public static final String BASIC_PREFIX = "Basic ";
+    public static final String BEARER_PREFIX = "Bearer ";
+
+    private final AuthCache cache;
+
+    public AuthRouter() {
+        this(new AuthCache());
+    }
+
+    AuthRouter(AuthCache cache) {
+        this.cache = cache;
+        Storages.USER_STORAGE.addChangeListener(cache::invalidate);
+    }
 
     @Override
     public Router loadRouter(Vertx vertx) {
@@ -34,35 +50,72 @@ public class AuthRouter implements Routable {
 
     Completable handleRequest(RoutingContext context) {
         String authHeader = context.request().getHeader(AUTH_HEADER);
+        if (authHeader != null && authHeader.startsWith(BEARER_PREFIX)) {
+            Pair<String, UserType> user = TOKEN_SERVICE.verify(authHeader.substring(BEARER_PREFIX.length()));
+            if (user == null) {
+                context.fail(StatusCode.UNAUTHORISED.getStatusCode());
+                return Completable.complete();
+            }
+            addUserHeaders(context, user.getLeft(), user.getRight());
+            return Completable.complete();
+        }
         Pair<String, String> credentials = getCredentials(authHeader);
         if (credentials == null) {
             context.fail(StatusCode.UNAUTHORISED.getStatusCode());
             return Completable.complete();
         }
 
+        // The header contains the password, so only its digest is kept
+        String credentialsDigest = Base64.encodeBase64String(sha256(authHeader.getBytes(StandardCharsets.UTF_8)));
+        AuthCache.Entry entry = cache.get(credentialsDigest);
+        if (entry != null) {
+            addUserHeaders(context, entry.getUsername(), entry.getUserType());
+            return Completable.complete();
+        }
+        long generation = cache.getGeneration();
         return Storages.USER_STORAGE.getUser(credentials.getLeft())
-                .doOnSuccess(user1 -> {
-                    if (!user1.checkPassword(credentials.getRight())) {
-                        context.fail(StatusCode.UNAUTHORISED.getStatusCode());
-                        return;
-                    }
-                    context.request().headers().add(USERNAME_HEADER, user1.getUsername());
-                    context.request().headers().add(USER_TYPE_HEADER, user1.getUserType().toString().toLowerCase());
+                .flatMap(user1 -> Storages.PASSWORD_HASHER.verify(credentials.getRight(), user1.getPassword())
+                        .filter(Boolean::booleanValue)
+                        .map(ign -> user1))
+                // Completes empty if there is no such user or the password is wrong
+                .doOnComplete(() -> context.fail(StatusCode.UNAUTHORISED.getStatusCode()))
+                .flatMapCompletable(user1 -> {
+                    cache.put(credentialsDigest, user1.getUsername(), user1.getUserType(), generation);
+                    addUserHeaders(context, user1.getUsername(), user1.getUserType());
+                    // The request doesn't wait for the rehash
+                    upgradePassword(user1, credentials.getRight())
+                            .subscribe(() -> {
+                            }, error -> System.out.println(String.format(
+                                    "Can't upgrade password of %s: %s", user1.getUsername(), error.getMessage())));
+                    return Completable.complete();
                 })
-                .switchIfEmpty(Single.fromCallable(() -> {
-                    context.fail(StatusCode.UNAUTHORISED.getStatusCode());
-                    return new User("", UserType.USER, "");
-                }))
-                .ignoreElement()
                 .doOnError(error -> handleError(context, error));
     }
 
+    /**
+     * Rehashes the password if its hash is an old one. Failures are only logged,
+     * because the old hash still works.
+     */
+    private static Completable upgradePassword(User user, String password) {
+        if (!Storages.PASSWORD_HASHER.needsUpgrade(user.getPassword())) {
+            return Completable.complete();
+        }
+        return Storages.PASSWORD_HASHER.hash(password)
+                .flatMap(hash -> Storages.USER_STORAGE.upgradePassword(user, user.getPassword(), hash))
+                .ignoreElement();
+    }
+
+    private static void addUserHeaders(RoutingContext context, String username, UserType userType) {
+        context.request().headers().add(USERNAME_HEADER, username);
+        context.request().headers().add(USER_TYPE_HEADER, userType.toString().toLowerCase());
+    }
+
     private Pair<String, String> getCredentials(String authHeader) {
-        if (StringUtils.isEmpty(authHeader) || !authHeader.startsWith("Basic ")) {
+        if (StringUtils.isEmpty(authHeader) || !authHeader.startsWith(BASIC_PREFIX)) {
             return null;
         }
 
-        String encodeCredentials = authHeader.replaceFirst("Basic ", "");
+        String encodeCredentials = authHeader.replaceFirst(BASIC_PREFIX, "");
         String usernamePassword = new String(Base64.decodeBase64(encodeCredentials.getBytes()));
         String[] credentials = usernamePassword.split(":");
         if (credentials.length != 2) {
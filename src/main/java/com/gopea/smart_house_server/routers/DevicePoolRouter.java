@@ -24,6 +24,10 @@ import static com.gopea.smart_house_server.common.Helpers.makeErrorRestResponse;
 import static com.gopea.smart_house_server.common.Helpers.makeRestResponseFromResponse;
 import static com.gopea.smart_house_server.data_base.Storages.DEVICE_STORAGE;
 import static com.gopea.smart_house_server.data_base.Storages.ID;
+import static com.gopea.smart_house_server.devices.DevicePool.COMMAND_TIMEOUT_KEY;
+import static com.gopea.smart_house_server.devices.DevicePool.DEFAULT_COMMAND_TIMEOUT_MILLIS;
+import static com.gopea.smart_house_server.devices.DevicePool.DEFAULT_MAX_CONCURRENCY;
+import static com.gopea.smart_house_server.devices.DevicePool.MAX_CONCURRENCY_KEY;
 import static com.gopea.smart_house_server.devices.Devices.DEVICE_TYPE_KEY;
 
 public class DevicePoolRouter implements Routable {
@@ -59,8 +63,17 @@ public class DevicePoolRouter implements Routable {
         }
 
         JsonArray devices = body.getJsonArray(DEVICES_KEY, new JsonArray());
+        JsonObject limits = DevicePool.validateLimits(body);
+        if (!isInternalStatusOk(limits)) {
+            makeErrorResponse(ctx, limits);
+            return Completable.complete();
+        }
+        Object maxConcurrency = body.getValue(MAX_CONCURRENCY_KEY);
+        Object commandTimeout = body.getValue(COMMAND_TIMEOUT_KEY);
 
-        return DEVICE_STORAGE.addDevice(new DevicePool(new ArrayList<>(), deviceType))
+        return DEVICE_STORAGE.addDevice(new DevicePool(new ArrayList<>(), deviceType,
+                maxConcurrency == null ? DEFAULT_MAX_CONCURRENCY : (Integer) maxConcurrency,
+                commandTimeout == null ? DEFAULT_COMMAND_TIMEOUT_MILLIS : ((Number) commandTimeout).longValue()))
                 .flatMapCompletable(response -> {
                     if (isInternalStatusOk(response)) {
                         makeRestResponseFromResponse(ctx, response, new JsonObject().put(ID, response.getString(ID)));
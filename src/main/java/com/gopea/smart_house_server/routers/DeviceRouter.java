@@ -1,26 +1,49 @@
 package com.gopea.smart_house_server.routers;
 
+import com.gopea.smart_house_server.common.InternalStatus;
+import com.gopea.smart_house_server.common.SingleFlight;
 import com.gopea.smart_house_server.configs.RouteConfiguration;
 import com.gopea.smart_house_server.configs.StatusCode;
+import com.gopea.smart_house_server.connectors.RetryPolicy;
 import com.gopea.smart_house_server.devices.BaseDevice;
 import com.gopea.smart_house_server.devices.Device;
+import com.gopea.smart_house_server.devices.DeviceAction;
+import com.gopea.smart_house_server.devices.DevicePool;
+import com.gopea.smart_house_server.devices.DeviceReconnector;
+import com.gopea.smart_house_server.devices.DeviceShadow;
+import com.gopea.smart_house_server.devices.DeviceState;
 import com.gopea.smart_house_server.devices.DeviceType;
 import io.reactivex.Completable;
-import io.reactivex.Flowable;
+import io.reactivex.CompletableEmitter;
 import io.reactivex.Single;
+import io.vertx.core.Handler;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.reactivex.core.Vertx;
 import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.core.http.HttpServerResponse;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.gopea.smart_house_server.common.Helpers.BASE_BAD_REQUEST_MESSAGE;
+import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.createResponseJson;
+import static com.gopea.smart_house_server.common.Helpers.getEnum;
 import static com.gopea.smart_house_server.common.Helpers.handleEmptyCase;
 import static com.gopea.smart_house_server.data_base.Storages.ID;
 import static com.gopea.smart_house_server.common.Helpers.MESSAGE_KEY;
@@ -32,12 +55,33 @@ import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
 import static com.gopea.smart_house_server.common.Helpers.makeErrorResponse;
 import static com.gopea.smart_house_server.common.Helpers.makeErrorRestResponse;
 import static com.gopea.smart_house_server.common.Helpers.makeRestResponseFromResponse;
+import static com.gopea.smart_house_server.devices.BaseDevice.GATEWAY_DEVICE_ID_KEY;
+import static com.gopea.smart_house_server.devices.BaseDevice.STATUS_KEY;
 import static com.gopea.smart_house_server.devices.BaseDevice.UPDATE_TIME_KEY;
+import static com.gopea.smart_house_server.devices.DeviceReconnector.RECONNECTOR;
 import static com.gopea.smart_house_server.devices.Devices.DEVICE_PROPERTIES_KEY;
 import static com.gopea.smart_house_server.devices.Devices.DEVICE_TYPE_KEY;
+import static io.vertx.core.http.HttpHeaders.CONTENT_TYPE;
 
 public class DeviceRouter implements Routable {
   private static final String PATH = RouteConfiguration.REST_PREFIX + "/device";
+  static final String FROM_PARAM = "from";
+  static final String TO_PARAM = "to";
+  static final String STEP_PARAM = "step";
+  static final String LIMIT_PARAM = "limit";
+  static final String CURSOR_PARAM = "cursor";
+  static final String STREAM_PARAM = "stream";
+  static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+  static final String NEXT_CURSOR_HEADER = "Next-Cursor";
+  static final String MAX_AGE_PARAM = "max_age";
+  static final String FRESH_PARAM = "fresh";
+  static final String HEALTH_PARAM = "health";
+  static final int MAX_LIMIT = 10_000;
+
+  /**
+   * Concurrent reads of the same device share one connector call.
+   */
+  private final SingleFlight<Pair<String, DeviceAction>, JsonObject> reads = new SingleFlight<>();
 
 
   @Override
@@ -50,6 +94,7 @@ public class DeviceRouter implements Routable {
     router.route(HttpMethod.POST, PATH + "/:id/reboot").handler(ctx -> handleReboot(ctx).subscribe());
     router.route(HttpMethod.POST, PATH + "/:id/disconnect").handler(ctx -> handleDisconnect(ctx).subscribe());
     router.route(HttpMethod.POST, PATH + "/:id/connect").handler(ctx -> handleConnect(ctx).subscribe());
+    router.route(HttpMethod.GET, PATH + "/reconnect").handler(ctx -> handleReconnectProgress(ctx).subscribe());
     router.route(HttpMethod.GET, PATH + "/:id").handler(ctx -> handleGetWithId(ctx).subscribe());
     router.route(HttpMethod.GET, PATH + "/:id/metrics").handler(ctx -> handleMetrics(ctx).subscribe());
     router.route(HttpMethod.GET, PATH).handler(ctx -> handleGet(ctx).subscribe());
@@ -112,7 +157,7 @@ public class DeviceRouter implements Routable {
       makeErrorRestResponse(ctx, StatusCode.BAD_REQUEST, "Body are required for this request");
       return Completable.complete();
     }
-    return handleDeviceActionWithId(ctx, id, device -> device.execute(body));
+    return handleDeviceActionWithId(ctx, id, failFast(device -> device.execute(body)));
   }
 
   Completable handlePowerOff(RoutingContext ctx) {
@@ -123,7 +168,7 @@ public class DeviceRouter implements Routable {
           if (!isOk) {
             return Completable.complete();
           }
-          return handleDeviceActionWithId(ctx, id, Device::powerOff);
+          return handleDeviceActionWithId(ctx, id, failFast(Device::powerOff));
         });
   }
 
@@ -134,7 +179,7 @@ public class DeviceRouter implements Routable {
           if (!isOk) {
             return Completable.complete();
           }
-          return handleDeviceActionWithId(ctx, id, Device::reboot);
+          return handleDeviceActionWithId(ctx, id, failFast(Device::reboot));
         });
   }
 
@@ -166,11 +211,65 @@ public class DeviceRouter implements Routable {
       makeErrorRestResponse(ctx, StatusCode.BAD_REQUEST, BASE_BAD_REQUEST_MESSAGE);
       return Completable.complete();
     }
-    return handleDeviceActionWithId(ctx, id, device -> device
-        .getData()
+    boolean fresh = Boolean.parseBoolean(ctx.request().getParam(FRESH_PARAM));
+    boolean health = Boolean.parseBoolean(ctx.request().getParam(HEALTH_PARAM));
+    String maxAgeParam = ctx.request().getParam(MAX_AGE_PARAM);
+    // Negative means the max age of the device, see getShadow
+    long maxAgeMillis = -1;
+    if (StringUtils.isNotEmpty(maxAgeParam)) {
+      long maxAge = NumberUtils.toLong(maxAgeParam, -1);
+      if (maxAge < 0) {
+        makeErrorRestResponse(ctx, StatusCode.BAD_REQUEST, String.format("%s should be a non-negative number of seconds", MAX_AGE_PARAM));
+        return Completable.complete();
+      }
+      maxAgeMillis = maxAge * 1000;
+    }
+    final long finalMaxAgeMillis = maxAgeMillis;
+    return handleDeviceActionWithId(ctx, id, device -> {
+      // The health of a pool is kept up to date by its members, so no command is sent for it
+      if (health && device instanceof DevicePool) {
+        return Single.just(createResponseJson(InternalStatus.OK, StatusCode.SUCCESS, ((DevicePool) device).getHealth()));
+      }
+      if (!fresh) {
+        JsonObject shadow = getShadow(device, finalMaxAgeMillis);
+        if (shadow != null) {
+          return Single.just(shadow);
+        }
+      }
+      return failFast(ign -> readLive(id, device)).execute(device);
+    }, failFast(Device::getData));
+  }
+
+  /**
+   * @return Last known data and status of a connected device if they aren't older than maxAgeMillis, otherwise null.
+   * If maxAgeMillis is negative, only the shadow of a polled device is used and it's as old as the poll interval.
+   */
+  private static JsonObject getShadow(Device device, long maxAgeMillis) {
+    if (!(device instanceof BaseDevice) || !((BaseDevice) device).isPollable()) {
+      return null;
+    }
+    BaseDevice baseDevice = (BaseDevice) device;
+    if (maxAgeMillis < 0) {
+      if (baseDevice.getUpdateTime() <= 0) {
+        return null;
+      }
+      maxAgeMillis = baseDevice.getUpdateTime() * 1000L;
+    }
+    DeviceShadow shadow = baseDevice.getShadow();
+    if (!shadow.isComplete() || System.currentTimeMillis() - shadow.getUpdatedAt() > maxAgeMillis) {
+      return null;
+    }
+    return shadow.toJson();
+  }
+
+  /**
+   * Reads data and status from the device, they also update its shadow.
+   */
+  private Single<JsonObject> readLive(String id, Device device) {
+    return read(id, DeviceAction.GET_DATA, device::getData)
         .flatMap(response -> {
           if (isInternalStatusOk(response)) {
-            return device.getStatus()
+            return read(id, DeviceAction.GET_STATUS, device::getStatus)
                 .map(response1 -> {
                   if (isInternalStatusOk(response1)) {
                     JsonObject object = response.copy();
@@ -180,8 +279,13 @@ public class DeviceRouter implements Routable {
                 });
           }
           return Single.just(response);
-        })
-    );
+        });
+  }
+
+  private Single<JsonObject> read(String id, DeviceAction action, Callable<Single<JsonObject>> call) {
+    // The result is shared, so every caller gets its own copy
+    return reads.execute(new ImmutablePair<>(id, action), call)
+        .map(JsonObject::copy);
   }
 
   Completable handleMetrics(RoutingContext ctx) {
@@ -190,10 +294,29 @@ public class DeviceRouter implements Routable {
       makeErrorRestResponse(ctx, StatusCode.BAD_REQUEST, BASE_BAD_REQUEST_MESSAGE);
       return Completable.complete();
     }
+    Long from = parseTime(ctx.request().getParam(FROM_PARAM), Long.MIN_VALUE);
+    Long to = parseTime(ctx.request().getParam(TO_PARAM), Long.MAX_VALUE);
+    if (from == null || to == null || from > to) {
+      makeErrorRestResponse(ctx, StatusCode.BAD_REQUEST,
+          String.format("%s and %s should be ISO-8601 instants or epoch milliseconds and %s shouldn't be after %s",
+              FROM_PARAM, TO_PARAM, FROM_PARAM, TO_PARAM));
+      return Completable.complete();
+    }
+    String stepParam = ctx.request().getParam(STEP_PARAM);
+    long step = 0;
+    if (StringUtils.isNotEmpty(stepParam)) {
+      step = NumberUtils.toLong(stepParam, -1);
+      if (step <= 0 || step > Long.MAX_VALUE / 1000) {
+        makeErrorRestResponse(ctx, StatusCode.BAD_REQUEST,
+            String.format("%s should be a positive number of seconds, not more than %d", STEP_PARAM, Long.MAX_VALUE / 1000));
+        return Completable.complete();
+      }
+    }
+    final long stepMillis = step * 1000;
     return DEVICE_STORAGE.getDevice(id)
         .switchIfEmpty(handleEmptyCase(ctx, DEVICE_STORAGE.getDevice(id)))
         .flatMapCompletable(device ->
-            device.getMetrics()
+            device.getMetrics(from, to, stepMillis)
                 .flatMapCompletable(response -> {
                   ctx.response().setStatusCode(StatusCode.SUCCESS.getStatusCode());
                   ctx.response().end(Buffer.newInstance(response.toBuffer()));
@@ -202,28 +325,67 @@ public class DeviceRouter implements Routable {
         .doOnError(err -> handleError(ctx, err));
   }
 
+  /**
+   * Answers how many restored devices are connected so far, see {@link DeviceReconnector}.
+   */
+  Completable handleReconnectProgress(RoutingContext ctx) {
+    makeRestResponseFromResponse(ctx, createResponseJson(InternalStatus.OK, StatusCode.SUCCESS, new JsonObject()),
+        RECONNECTOR.getProgress());
+    return Completable.complete();
+  }
+
   Completable handleGet(RoutingContext ctx) {
     String deviceTypeParam = ctx.request().getParam(DEVICE_TYPE_KEY);
+    String stateParam = ctx.request().getParam(STATUS_KEY);
     String id = ctx.request().getParam(ID);
+    String limitParam = ctx.request().getParam(LIMIT_PARAM);
+    String cursor = ctx.request().getParam(CURSOR_PARAM);
+    boolean stream = Boolean.parseBoolean(ctx.request().getParam(STREAM_PARAM));
     DeviceType deviceType = DeviceType.getEnum(deviceTypeParam);
-    if (deviceType == null && StringUtils.isNotEmpty(deviceTypeParam)) {
+    DeviceState state = getEnum(stateParam, DeviceState.class);
+    int limit = StringUtils.isEmpty(limitParam) ? 0 : NumberUtils.toInt(limitParam, -1);
+    // No limit is given by omitting the param, an explicit one should be positive
+    if ((limit <= 0 && StringUtils.isNotEmpty(limitParam)) || limit > MAX_LIMIT) {
+      makeErrorRestResponse(ctx, StatusCode.BAD_REQUEST, String.format("%s should be a positive int, not more than %d", LIMIT_PARAM, MAX_LIMIT));
+      return Completable.complete();
+    }
+    if ((deviceType == null && StringUtils.isNotEmpty(deviceTypeParam))
+        || (state == null && StringUtils.isNotEmpty(stateParam))) {
       ctx.response().setStatusCode(StatusCode.SUCCESS.getStatusCode());
       ctx.response().end(Buffer.newInstance(new JsonArray().toBuffer()));
       return Completable.complete();
     }
-    return DEVICE_STORAGE.getDevices()
-        .flatMap(pairs -> Flowable.fromIterable(pairs)
-            .filter(pair -> StringUtils.isEmpty(deviceTypeParam) || deviceType.getClazz().isAssignableFrom(pair.getRight().getClass()))
-            .filter(pair -> StringUtils.isEmpty(id) || pair.getLeft().equals(id))
-            .collectInto(new ArrayList<Pair<String, ? extends Device>>(), (ArrayList::add)))
+    Single<List<Pair<String, Device>>> devices;
+    if (StringUtils.isNotEmpty(id)) {
+      devices = DEVICE_STORAGE.getDevice(id)
+          .filter(device -> deviceType == null || deviceType.getClazz().isAssignableFrom(device.getClass()))
+          .flatMap(device -> device.getState()
+              .filter(deviceState -> state == null || state.equals(deviceState))
+              .map(ign -> Collections.<Pair<String, Device>>singletonList(new ImmutablePair<>(id, device))))
+          .toSingle(Collections.emptyList());
+    } else if (limit > 0) {
+      // One more device is requested to know if there is the next page
+      devices = DEVICE_STORAGE.getDevices(deviceType, state, StringUtils.defaultIfEmpty(cursor, null), limit + 1)
+          .map(list -> {
+            if (list.size() > limit) {
+              ctx.response().putHeader(NEXT_CURSOR_HEADER, list.get(limit - 1).getLeft());
+              return list.subList(0, limit);
+            }
+            return list;
+          });
+    } else {
+      devices = DEVICE_STORAGE.getDevices(deviceType, state);
+    }
+    if (stream) {
+      return devices
+          .flatMapCompletable(list -> streamDevices(ctx.response(), list))
+          .doOnError(err -> handleError(ctx, err));
+    }
+    return devices
         .map(list -> {
           JsonArray array = new JsonArray();
-          for (Pair<String, ? extends Device> pair : list) {
-            JsonObject object = new JsonObject()
-                .put(ID, pair.getLeft())
-                .put(DEVICE_TYPE_KEY, pair.getRight().getType().toString().toLowerCase())
-                .mergeIn(pair.getRight().toJson());
-            array.add(object);
+          for (Pair<String, Device> pair : list) {
+            array.add(deviceToJson(pair));
           }
           return array;
         })
@@ -270,8 +432,15 @@ public class DeviceRouter implements Routable {
                     makeErrorResponse(ctx, response);
                     return Completable.complete();
                   }
-                  makeRestResponseFromResponse(ctx, response);
-                  return Completable.complete();
+                  return DEVICE_STORAGE.updateDevice(id)
+                      .flatMapCompletable(storageResponse -> {
+                        if (!isInternalStatusOk(storageResponse)) {
+                          makeErrorResponse(ctx, storageResponse);
+                          return Completable.complete();
+                        }
+                        makeRestResponseFromResponse(ctx, response);
+                        return Completable.complete();
+                      });
                 }))
         .doOnError(err -> handleError(ctx, err));
   }
@@ -308,6 +477,73 @@ public class DeviceRouter implements Routable {
     return Single.just(true);
   }
 
+  private static JsonObject deviceToJson(Pair<String, Device> pair) {
+    return new JsonObject()
+        .put(ID, pair.getLeft())
+        .put(DEVICE_TYPE_KEY, pair.getRight().getType().toString().toLowerCase())
+        .mergeIn(pair.getRight().toJson());
+  }
+
+  /**
+   * Writes devices as a json array to the chunked response. Every device is serialized just before it's written
+   * and writing is paused while the write queue is full, so memory doesn't depend on the number of devices.
+   */
+  private static Completable streamDevices(HttpServerResponse response, List<Pair<String, Device>> devices) {
+    return Completable.create(emitter -> {
+      response.setStatusCode(StatusCode.SUCCESS.getStatusCode());
+      response.setChunked(true);
+      response.write(Buffer.buffer("["));
+      writeDevices(response, devices.iterator(), true, emitter);
+    })
+        // The status is already sent, so the response is just closed
+        .onErrorResumeNext(err -> Completable.fromAction(response::close));
+  }
+
+  private static void writeDevices(HttpServerResponse response, Iterator<Pair<String, Device>> iterator,
+      boolean first, CompletableEmitter emitter) {
+    try {
+      while (iterator.hasNext()) {
+        if (response.writeQueueFull()) {
+          final boolean nextFirst = first;
+          awaitDrain(response, emitter, ign -> writeDevices(response, iterator, nextFirst, emitter));
+          return;
+        }
+        Buffer buffer = Buffer.buffer(first ? "" : ",");
+        buffer.appendBuffer(Buffer.newInstance(deviceToJson(iterator.next()).toBuffer()));
+        response.write(buffer);
+        first = false;
+      }
+      response.end(Buffer.buffer("]"));
+      emitter.onComplete();
+    } catch (Exception e) {
+      emitter.onError(e);
+    }
+  }
+
+  /**
+   * Parses ISO-8601 instant or epoch milliseconds.
+   *
+   * @return Time in milliseconds, default value for empty param or null if param is invalid.
+   */
+  private static Long parseTime(String param, long defaultValue) {
+    if (StringUtils.isEmpty(param)) {
+      return defaultValue;
+    }
+    if (NumberUtils.isDigits(param)) {
+      // Numbers which don't fit in long are invalid, not the default
+      try {
+        return Long.parseLong(param);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    try {
+      return Instant.parse(param).toEpochMilli();
+    } catch (DateTimeParseException | ArithmeticException e) {
+      return null;
+    }
+  }
+
   private boolean checkBody(JsonObject body, RoutingContext context) {
     if (body == null) {
       makeErrorRestResponse(context, StatusCode.BAD_REQUEST, "Body are required for this request");
@@ -344,25 +580,110 @@ public class DeviceRouter implements Routable {
         return false;
       }
     }
+    Object gatewayDeviceId = deviceProp.getValue(GATEWAY_DEVICE_ID_KEY);
+    if (gatewayDeviceId != null && (!(gatewayDeviceId instanceof String) || StringUtils.isBlank((String) gatewayDeviceId))) {
+      makeErrorRestResponse(context, StatusCode.BAD_REQUEST, String.format("%s should be a non blank string", GATEWAY_DEVICE_ID_KEY));
+      return false;
+    }
     return true;
   }
 
   private Completable handleDeviceActionWithId(RoutingContext context, String id, DeviceRollback rollback) {
+    return handleDeviceActionWithId(context, id, rollback, rollback);
+  }
+
+  /**
+   * @param memberRollback Action which is sent to every device of a pool if results are streamed.
+   */
+  private Completable handleDeviceActionWithId(RoutingContext context, String id, DeviceRollback rollback,
+      DeviceRollback memberRollback) {
+    boolean stream = Boolean.parseBoolean(context.request().getParam(STREAM_PARAM));
     return DEVICE_STORAGE.getDevice(id)
         .switchIfEmpty(handleEmptyCase(context, DEVICE_STORAGE.getDevice(id)))
-        .flatMapCompletable(device ->
-            rollback.execute(device)
-                .flatMapCompletable(response -> {
-                  if (!isInternalStatusOk(response)) {
-                    makeErrorResponse(context, response);
-                    return Completable.complete();
-                  }
-                  makeRestResponseFromResponse(context, response);
+        .flatMapCompletable(device -> {
+          if (stream && device instanceof DevicePool) {
+            return streamPoolCommand(context.response(), (DevicePool) device, memberRollback);
+          }
+          return rollback.execute(device)
+              .flatMapCompletable(response -> {
+                if (!isInternalStatusOk(response)) {
+                  makeErrorResponse(context, response);
                   return Completable.complete();
-                }))
+                }
+                makeRestResponseFromResponse(context, response);
+                return Completable.complete();
+              });
+        })
         .doOnError(err -> handleError(context, err));
   }
 
+  /**
+   * Answers 503 at once while the circuit breaker of the device is open, so the request doesn't wait for it.
+   */
+  private static DeviceRollback failFast(DeviceRollback rollback) {
+    return device -> {
+      if (device instanceof BaseDevice && !((BaseDevice) device).isCallPermitted()) {
+        return Single.just(createResponseJson(InternalStatus.FAILED, StatusCode.UNAVAILABLE,
+            new JsonObject().put(MESSAGE_KEY, RetryPolicy.CIRCUIT_OPEN_MESSAGE)));
+      }
+      return rollback.execute(device);
+    };
+  }
+
+  /**
+   * Writes the result of every device of the pool as a line of json as soon as the device answers,
+   * the last line is the summary with the aggregate status. Writing waits while the write queue is full.
+   */
+  private static Completable streamPoolCommand(HttpServerResponse response, DevicePool pool, DeviceRollback rollback) {
+    AtomicInteger total = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    return Completable.fromAction(() -> {
+      response.setStatusCode(StatusCode.SUCCESS.getStatusCode());
+      response.setChunked(true);
+      response.putHeader(CONTENT_TYPE, NDJSON_CONTENT_TYPE);
+    })
+        .andThen(pool.streamCommand(rollback::execute))
+        .concatMapCompletable(result -> {
+          total.incrementAndGet();
+          if (!isInternalStatusOk(result)) {
+            failed.incrementAndGet();
+          }
+          // Lines look like responses of the buffered form, the status is in the summary
+          result.remove(INTERNAL_STATUS_KEY);
+          result.remove(EXTERNAL_STATUS_KEY);
+          return writeLine(response, result);
+        })
+        .andThen(Completable.fromAction(() -> response.end(
+            Buffer.newInstance(DevicePool.summarize(total.get(), failed.get()).put(DevicePool.SUMMARY_KEY, true).toBuffer())
+                .appendString("\n"))))
+        // The status is already sent, so the response is just closed
+        .onErrorResumeNext(err -> Completable.fromAction(response::close));
+  }
+
+  private static Completable writeLine(HttpServerResponse response, JsonObject line) {
+    return Completable.create(emitter -> {
+      response.write(Buffer.newInstance(line.toBuffer()).appendString("\n"));
+      if (response.writeQueueFull()) {
+        awaitDrain(response, emitter, ign -> emitter.onComplete());
+      } else {
+        emitter.onComplete();
+      }
+    });
+  }
+
+  /**
+   * Calls the handler when the write queue is drained. A client which is gone never drains it,
+   * so the emitter fails if the connection is closed or broken meanwhile.
+   */
+  private static void awaitDrain(HttpServerResponse response, CompletableEmitter emitter, Handler<Void> handler) {
+    response.closeHandler(ign -> emitter.tryOnError(new IOException("Connection is closed")));
+    response.exceptionHandler(emitter::tryOnError);
+    response.drainHandler(handler);
+    if (response.closed()) {
+      emitter.tryOnError(new IOException("Connection is closed"));
+    }
+  }
+
   @FunctionalInterface
   private interface DeviceRollback {
     Single<JsonObject> execute(Device device);
@@ -0,0 +1,83 @@
+package com.gopea.smart_house_server.routers;
+
+import com.gopea.smart_house_server.common.InternalStatus;
+import com.gopea.smart_house_server.common.TokenService;
+import com.gopea.smart_house_server.configs.RouteConfiguration;
+import com.gopea.smart_house_server.configs.StatusCode;
+import com.gopea.smart_house_server.data_base.Storages;
+import com.gopea.smart_house_server.routers.users.UserType;
+import io.reactivex.Completable;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.ext.web.Router;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+import static com.gopea.smart_house_server.common.Helpers.USERNAME_HEADER;
+import static com.gopea.smart_house_server.common.Helpers.USER_TYPE_HEADER;
+import static com.gopea.smart_house_server.common.Helpers.createResponseJson;
+import static com.gopea.smart_house_server.common.Helpers.makeRestResponseFromResponse;
+import static com.gopea.smart_house_server.common.TokenService.TOKEN_SERVICE;
+import static com.gopea.smart_house_server.routers.AuthRouter.AUTH_HEADER;
+import static com.gopea.smart_house_server.routers.AuthRouter.BASIC_PREFIX;
+import static com.gopea.smart_house_server.routers.AuthRouter.BEARER_PREFIX;
+
+/**
+ * Issues tokens for users authenticated with Basic credentials, so next requests skip the password check.
+ * A token itself can't be used to log in.
+ */
+public class TokenRouter implements Routable {
+  static final String LOGIN_PATH = RouteConfiguration.REST_PREFIX + "/login";
+  static final String LOGOUT_PATH = RouteConfiguration.REST_PREFIX + "/logout";
+  public static final String TOKEN_KEY = "token";
+  public static final String EXPIRES_IN_KEY = "expires_in";
+
+  private final TokenService tokenService;
+
+  public TokenRouter() {
+    this(TOKEN_SERVICE);
+    // Tokens issued before a password change or a deletion of the user aren't valid anymore
+    Storages.USER_STORAGE.addChangeListener(TOKEN_SERVICE::revokeUser);
+  }
+
+  TokenRouter(TokenService tokenService) {
+    this.tokenService = tokenService;
+  }
+
+  @Override
+  public Router loadRouter(Vertx vertx) {
+    Router router = Router.router(vertx);
+    router.route(HttpMethod.POST, LOGIN_PATH).handler(ctx -> handleLogin(ctx).subscribe());
+    router.route(HttpMethod.POST, LOGOUT_PATH).handler(ctx -> handleLogout(ctx).subscribe());
+    return router;
+  }
+
+  Completable handleLogin(RoutingContext ctx) {
+    // A token can't be exchanged for a new one, otherwise it could be renewed forever
+    String authHeader = ctx.request().getHeader(AUTH_HEADER);
+    if (authHeader == null || !authHeader.startsWith(BASIC_PREFIX)) {
+      ctx.fail(StatusCode.UNAUTHORISED.getStatusCode());
+      return Completable.complete();
+    }
+    String username = ctx.request().getHeader(USERNAME_HEADER);
+    UserType userType = UserType.getEnum(ctx.request().getHeader(USER_TYPE_HEADER));
+    if (username == null || userType == null) {
+      ctx.fail(StatusCode.UNAUTHORISED.getStatusCode());
+      return Completable.complete();
+    }
+    JsonObject response = createResponseJson(InternalStatus.OK, StatusCode.SUCCESS, new JsonObject()
+        .put(TOKEN_KEY, tokenService.issue(username, userType))
+        .put(EXPIRES_IN_KEY, tokenService.getTtlMillis() / 1000));
+    makeRestResponseFromResponse(ctx, response);
+    return Completable.complete();
+  }
+
+  Completable handleLogout(RoutingContext ctx) {
+    String authHeader = ctx.request().getHeader(AUTH_HEADER);
+    if (authHeader != null && authHeader.startsWith(BEARER_PREFIX)) {
+      tokenService.revoke(authHeader.substring(BEARER_PREFIX.length()));
+    }
+    makeRestResponseFromResponse(ctx, createResponseJson(InternalStatus.OK, StatusCode.NO_CONTENT, new JsonObject()));
+    return Completable.complete();
+  }
+}
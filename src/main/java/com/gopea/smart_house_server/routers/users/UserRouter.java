@@ -117,8 +117,8 @@ public class UserRouter implements Routable {
                             String.format("user_type %s is not supported", userType)).toBuffer()));
             return Completable.complete();
         }
-        User user = new User(username, userType1, password);
-        return Storages.USER_STORAGE.addUser(user)
+        return Storages.PASSWORD_HASHER.hash(password)
+                .flatMap(hash -> Storages.USER_STORAGE.addUser(new User(username, userType1, hash)))
                 .flatMapCompletable(response -> {
                     if (!InternalStatus.valueOf(response.getString(INTERNAL_STATUS_KEY)).isOk) {
                         makeErrorResponse(routingContext, response);
@@ -148,7 +148,7 @@ public class UserRouter implements Routable {
         if (StringUtils.isNotEmpty(password)) {
             return Storages.USER_STORAGE.getUser(username)
                     .switchIfEmpty(handleEmptyCase(routingContext, Storages.USER_STORAGE.getUser(username)))
-                    .flatMapSingle(user -> Single.just(user.setPassword(password)))
+                    .flatMapSingle(user -> Storages.PASSWORD_HASHER.hash(password).map(user::setPassword))
                     .flatMap(Storages.USER_STORAGE::updatePassword)
                     .flatMapCompletable(response -> {
                         if (!isInternalStatusOk(response)) {
@@ -4,14 +4,25 @@ import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import io.vertx.reactivex.core.Vertx;
 
+import java.nio.file.Paths;
+
+import static com.gopea.smart_house_server.common.Helpers.DATA_DIR_PROPERTY;
+import static com.gopea.smart_house_server.common.Helpers.DEVICES_JOURNAL_FILE;
+import static com.gopea.smart_house_server.common.Helpers.DEVICES_SNAPSHOT_FILE;
+
 public final class TestHelpers {
 
   public static Completable deleteDeviceFiles(Vertx vertx){
+    String dataDir = System.getProperty(DATA_DIR_PROPERTY, ".");
     return vertx.fileSystem().rxReadDir("./")
         .flatMapCompletable(list ->
             Flowable.fromIterable(list)
                 .filter(string -> string.endsWith(".txt"))
                 .flatMapCompletable(string -> vertx.fileSystem().rxDelete(string))
-        );
+        )
+        .andThen(Flowable.just(DEVICES_JOURNAL_FILE, DEVICES_SNAPSHOT_FILE)
+            .map(name -> Paths.get(dataDir, name).toString())
+            .flatMapCompletable(path -> vertx.fileSystem().rxExists(path)
+                .flatMapCompletable(exists -> exists ? vertx.fileSystem().rxDelete(path) : Completable.complete())));
   }
 }
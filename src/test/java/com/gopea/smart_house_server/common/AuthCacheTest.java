@@ -0,0 +1,80 @@
+package com.gopea.smart_house_server.common;
+
+import com.gopea.smart_house_server.routers.users.UserType;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+
+public class AuthCacheTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorFail() {
+        new AuthCache(0, 1000);
+    }
+
+    @Test
+    public void testGet() {
+        AuthCache target = new AuthCache(10, 1000);
+        target.put("digest", "user", UserType.ADMIN, target.getGeneration());
+
+        AuthCache.Entry entry = target.get("digest");
+        assertNotNull(entry);
+        assertEquals("user", entry.getUsername());
+        assertEquals(UserType.ADMIN, entry.getUserType());
+        assertNull(target.get("other"));
+    }
+
+    @Test
+    public void testExpiration() {
+        AtomicLong time = new AtomicLong();
+        AuthCache target = new AuthCache(10, 1000, time::get);
+        target.put("digest", "user", UserType.USER, target.getGeneration());
+
+        time.set(999);
+        assertNotNull(target.get("digest"));
+        time.set(1000);
+        assertNull(target.get("digest"));
+        assertEquals(0, target.size());
+    }
+
+    @Test
+    public void testEviction() {
+        AuthCache target = new AuthCache(2, 1000);
+        target.put("first", "user1", UserType.USER, target.getGeneration());
+        target.put("second", "user2", UserType.USER, target.getGeneration());
+        target.get("first");
+        target.put("third", "user3", UserType.USER, target.getGeneration());
+
+        assertEquals(2, target.size());
+        assertNotNull(target.get("first"));
+        assertNull(target.get("second"));
+        assertNotNull(target.get("third"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        AuthCache target = new AuthCache(10, 1000);
+        target.put("first", "user", UserType.USER, target.getGeneration());
+        target.put("second", "user", UserType.USER, target.getGeneration());
+        target.put("third", "other", UserType.USER, target.getGeneration());
+
+        target.invalidate("user");
+
+        assertNull(target.get("first"));
+        assertNull(target.get("second"));
+        assertNotNull(target.get("third"));
+    }
+
+    @Test
+    public void testPutAfterInvalidate() {
+        AuthCache target = new AuthCache(10, 1000);
+        long generation = target.getGeneration();
+        target.invalidate("user");
+        target.put("digest", "user", UserType.USER, generation);
+
+        assertNull(target.get("digest"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.gopea.smart_house_server.common;
+
+import io.vertx.reactivex.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+
+public class PasswordHasherTest {
+
+    private Vertx vertx;
+
+    @Before
+    public void before() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void after() {
+        vertx.rxClose().blockingAwait();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorFail() {
+        new PasswordHasher(vertx, 1, 0, 16, 32);
+    }
+
+    @Test(timeout = 60_000L)
+    public void testHashAndVerify() {
+        PasswordHasher target = new PasswordHasher(vertx, 2, 1000, 16, 32);
+
+        byte[] hash = target.hash("password").blockingGet();
+        byte[] hash1 = target.hash("password").blockingGet();
+
+        assertFalse(Arrays.equals(hash, hash1));
+        assertTrue(target.verify("password", hash).blockingGet());
+        assertTrue(target.verify("password", hash1).blockingGet());
+        assertFalse(target.verify("password1", hash).blockingGet());
+        assertFalse(target.needsUpgrade(hash));
+    }
+
+    @Test(timeout = 60_000L)
+    public void testVerifyLegacy() {
+        PasswordHasher target = new PasswordHasher(vertx, 2, 1000, 16, 32);
+        byte[] legacy = Helpers.encryptPassword("password");
+
+        assertTrue(target.verify("password", legacy).blockingGet());
+        assertFalse(target.verify("password1", legacy).blockingGet());
+        assertFalse(target.verify("password", new byte[]{1, 2, 3}).blockingGet());
+        assertTrue(target.needsUpgrade(legacy));
+    }
+
+    @Test(timeout = 60_000L)
+    public void testNeedsUpgradeAfterCostChange() {
+        PasswordHasher weak = new PasswordHasher(vertx, 2, 1000, 16, 32);
+        PasswordHasher strong = new PasswordHasher(vertx, 2, 2000, 16, 32);
+
+        byte[] hash = weak.hash("password").blockingGet();
+
+        assertTrue(strong.needsUpgrade(hash));
+        assertTrue(strong.verify("password", hash).blockingGet());
+    }
+}
@@ -0,0 +1,77 @@
+package com.gopea.smart_house_server.common;
+
+import io.reactivex.Single;
+import io.reactivex.subjects.SingleSubject;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsShared() {
+        SingleFlight<String, Integer> target = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        SingleSubject<Integer> call = SingleSubject.create();
+
+        Single<Integer> first = target.execute("key", () -> {
+            calls.incrementAndGet();
+            return call;
+        }).cache();
+        Single<Integer> second = target.execute("key", () -> {
+            calls.incrementAndGet();
+            return Single.just(2);
+        }).cache();
+        first.subscribe();
+        second.subscribe();
+        assertEquals(1, target.size());
+
+        call.onSuccess(1);
+
+        assertEquals(1, first.blockingGet().intValue());
+        assertEquals(1, second.blockingGet().intValue());
+        assertEquals(1, calls.get());
+        assertEquals(0, target.size());
+    }
+
+    @Test
+    public void testKeysIndependent() {
+        SingleFlight<String, Integer> target = new SingleFlight<>();
+
+        Single<Integer> first = target.execute("first", SingleSubject::create);
+        first.subscribe();
+
+        assertEquals(2, target.execute("second", () -> Single.just(2)).blockingGet().intValue());
+        assertEquals(1, target.size());
+    }
+
+    @Test
+    public void testNewCallAfterFinish() {
+        SingleFlight<String, Integer> target = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        target.execute("key", () -> Single.just(calls.incrementAndGet())).blockingGet();
+        int result = target.execute("key", () -> Single.just(calls.incrementAndGet())).blockingGet();
+
+        assertEquals(2, result);
+    }
+
+    @Test
+    public void testErrorShared() {
+        SingleFlight<String, Integer> target = new SingleFlight<>();
+        SingleSubject<Integer> call = SingleSubject.create();
+
+        Single<Integer> first = target.execute("key", () -> call).cache();
+        Single<Integer> second = target.execute("key", () -> Single.just(2)).cache();
+        first.subscribe(value -> {}, error -> {});
+        second.subscribe(value -> {}, error -> {});
+        call.onError(new RuntimeException("error"));
+
+        assertEquals("error", first.materialize().blockingGet().getError().getMessage());
+        assertEquals("error", second.materialize().blockingGet().getError().getMessage());
+        assertEquals(0, target.size());
+    }
+}
@@ -0,0 +1,101 @@
+package com.gopea.smart_house_server.common;
+
+import com.gopea.smart_house_server.routers.users.UserType;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+
+public class TokenServiceTest {
+    private static final byte[] SECRET = "secret".getBytes();
+
+    @Test
+    public void testVerify() {
+        TokenService target = new TokenService(SECRET, 1000);
+        String token = target.issue("user", UserType.ADMIN);
+
+        Pair<String, UserType> user = target.verify(token);
+        assertNotNull(user);
+        assertEquals("user", user.getLeft());
+        assertEquals(UserType.ADMIN, user.getRight());
+    }
+
+    @Test
+    public void testVerifyInvalid() {
+        TokenService target = new TokenService(SECRET, 1000);
+        String token = target.issue("user", UserType.USER);
+
+        assertNull(target.verify(null));
+        assertNull(target.verify(""));
+        assertNull(target.verify("."));
+        assertNull(target.verify(token + "a"));
+        assertNull(target.verify("a" + token));
+        assertNull(new TokenService("other".getBytes(), 1000).verify(token));
+    }
+
+    @Test
+    public void testExpiration() {
+        AtomicLong time = new AtomicLong();
+        TokenService target = new TokenService(SECRET, 1000, time::get);
+        String token = target.issue("user", UserType.USER);
+
+        time.set(999);
+        assertNotNull(target.verify(token));
+        time.set(1000);
+        assertNull(target.verify(token));
+    }
+
+    @Test
+    public void testRevoke() {
+        TokenService target = new TokenService(SECRET, 1000);
+        String token = target.issue("user", UserType.USER);
+        String other = target.issue("user", UserType.USER);
+
+        assertTrue(target.revoke(token));
+        assertFalse(target.revoke("invalid"));
+
+        assertNull(target.verify(token));
+        assertNotNull(target.verify(other));
+    }
+
+    @Test
+    public void testRevokeUser() {
+        AtomicLong time = new AtomicLong();
+        TokenService target = new TokenService(SECRET, 1000, time::get);
+        String token = target.issue("user", UserType.USER);
+        String other = target.issue("other", UserType.USER);
+
+        time.set(10);
+        target.revokeUser("user");
+        time.set(11);
+        String newToken = target.issue("user", UserType.USER);
+
+        assertNull(target.verify(token));
+        assertNotNull(target.verify(other));
+        assertNotNull(target.verify(newToken));
+    }
+
+    @Test
+    public void testRevokedUserForgotten() {
+        AtomicLong time = new AtomicLong();
+        TokenService target = new TokenService(SECRET, 1000, time::get);
+        String token = target.issue("user", UserType.USER);
+        target.revokeUser("user");
+        assertEquals(1, target.getRevokedUsersCount());
+
+        // Tokens issued before the revocation have expired, so it isn't needed anymore
+        time.set(1000);
+        String newToken = target.issue("user", UserType.USER);
+        assertNull(target.verify(token));
+        assertNotNull(target.verify(newToken));
+        assertEquals(0, target.getRevokedUsersCount());
+
+        target.revokeUser("other");
+        time.set(2000);
+        target.revokeUser("another");
+        assertEquals(1, target.getRevokedUsersCount());
+    }
+}
@@ -5,6 +5,7 @@ import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.examples.StandardDeviceExample;
 import io.reactivex.Completable;
 import io.reactivex.CompletableObserver;
+import io.reactivex.subscribers.TestSubscriber;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
@@ -18,6 +19,7 @@ import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
 import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_KEY;
+import static junit.framework.TestCase.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
@@ -102,27 +104,6 @@ public class BaseTestDeviceConnectorTest {
         .subscribe();
   }
 
-  @Test(timeout = 60000)
-  public void testHasMessageFalse(TestContext context) {
-    final Async async = context.async();
-    deviceConnector.hasMessage()
-        .flatMapCompletable(has -> Completable.fromAction(() -> context.assertFalse(has)))
-        .andThen(Completable.fromAction(() -> async.complete()))
-        .subscribe();
-  }
-
-  @Test(timeout = 60000)
-  public void testHasMessageTrue(TestContext context) {
-    final Async async = context.async();
-
-    deviceConnector.messagesFromDevice.add(new JsonObject());
-
-    deviceConnector.hasMessage()
-        .flatMapCompletable(has -> Completable.fromAction(() -> context.assertTrue(has)))
-        .andThen(Completable.fromAction(() -> async.complete()))
-        .subscribe();
-  }
-
   @Test(timeout = 60000)
   public void testSendMessage(TestContext context) {
     final Async async = context.async();
@@ -170,75 +151,37 @@ public class BaseTestDeviceConnectorTest {
   }
 
   @Test(timeout = 60000)
-  public void testGetMessage(TestContext context) {
-    final Async async = context.async();
-
+  public void testEvents() {
     when(deviceExample.getResponse(any())).thenReturn(new JsonObject()
         .put(COMMAND_ACTION_KEY, BaseTestDeviceConnector.ConnectionState.CONNECTED)
     );
-
     JsonObject message = new JsonObject().put("key", "test message");
+    TestSubscriber<JsonObject> subscriber = deviceConnector.events().test();
 
-    deviceConnector.messagesFromDevice.add(message);
+    deviceConnector.sendEvent(new JsonObject().put("key", "lost message"));
+    deviceConnector.connect().blockingGet();
+    deviceConnector.sendEvent(message);
 
-    deviceConnector.isConnected()
-        .flatMapCompletable(isConnected -> Completable.fromAction(() -> context.assertFalse(isConnected)))
-        .andThen(deviceConnector.connect())
-        .map(response -> isInternalStatusOk(response))
-        .flatMapCompletable(isOk -> Completable.fromAction(() -> context.assertTrue(isOk)))
-        .andThen(deviceConnector.isConnected())
-        .flatMapCompletable(isConnected -> Completable.fromAction(() -> context.assertTrue(isConnected)))
-        .andThen(deviceConnector.getMessage())
-        .flatMapCompletable(response -> Completable.fromAction(() -> context.assertEquals(message, response)))
-        .andThen(Completable.fromAction(() -> async.complete()))
-        .subscribe();
+    subscriber.assertValue(message);
+    subscriber.assertNotComplete();
   }
 
   @Test(timeout = 60000)
-  public void testGetMessageFail(TestContext context) {
-    final Async async = context.async();
-
-    when(deviceExample.getResponse(any())).thenReturn(new JsonObject()
-        .put(COMMAND_ACTION_KEY, BaseTestDeviceConnector.ConnectionState.DISCONNECTED)
-    );
-
-    JsonObject message = new JsonObject().put("key", "test message");
-
-    deviceConnector.messagesFromDevice.add(message);
-
-    deviceConnector.getMessage()
-        .flatMapCompletable(response -> Completable.fromAction(() -> {
-          context.assertFalse(isInternalStatusOk(response));
-          context.assertEquals(StatusCode.UNAVAILABLE.getStatusCode(), response.getInteger(EXTERNAL_STATUS_KEY));
-        }))
-        .andThen(Completable.fromAction(() -> async.complete()))
-        .subscribe();
-  }
-
-  @Test(timeout = 60000)
-  public void testGetMessageEmpty(TestContext context) {
-    final Async async = context.async();
-
+  public void testEventsBackpressure() {
     when(deviceExample.getResponse(any())).thenReturn(new JsonObject()
         .put(COMMAND_ACTION_KEY, BaseTestDeviceConnector.ConnectionState.CONNECTED)
     );
-
-    JsonObject message = new JsonObject().put("key", "test message");
-
-    deviceConnector.isConnected()
-        .flatMapCompletable(isConnected -> Completable.fromAction(() -> context.assertFalse(isConnected)))
-        .andThen(deviceConnector.connect())
-        .map(response -> isInternalStatusOk(response))
-        .flatMapCompletable(isOk -> Completable.fromAction(() -> context.assertTrue(isOk)))
-        .andThen(deviceConnector.isConnected())
-        .flatMapCompletable(isConnected -> Completable.fromAction(() -> context.assertTrue(isConnected)))
-        .andThen(deviceConnector.getMessage())
-        .isEmpty()
-        .flatMapCompletable(isEmpty -> Completable.fromAction(() -> context.assertTrue(isEmpty)))
-        .andThen(Completable.fromAction(() -> async.complete()))
-        .subscribe();
+    deviceConnector.connect().blockingGet();
+    TestSubscriber<JsonObject> subscriber = deviceConnector.events().test(0);
+
+    int overflow = 10;
+    for (int i = 0; i < BaseTestDeviceConnector.MAX_BUFFERED_EVENTS + overflow; i++) {
+      deviceConnector.sendEvent(new JsonObject().put("key", i));
+    }
+    subscriber.assertNoValues();
+    subscriber.request(Long.MAX_VALUE);
+
+    subscriber.assertValueCount(BaseTestDeviceConnector.MAX_BUFFERED_EVENTS);
+    assertEquals(overflow, subscriber.values().get(0).getInteger("key").intValue());
   }
-
 }
-
-
@@ -0,0 +1,40 @@
+package com.gopea.smart_house_server.connectors;
+
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCodecTest {
+
+  @Test
+  public void testSplitFrames() {
+    List<JsonObject> frames = new ArrayList<>();
+    FrameCodec target = new FrameCodec(frames::add);
+    JsonObject first = new JsonObject().put("key", "первый");
+    JsonObject second = new JsonObject().put("key", 2);
+    Buffer stream = FrameCodec.encode(first).appendBuffer(FrameCodec.encode(second));
+
+    target.handle(stream.getBuffer(0, 3));
+    assertTrue(frames.isEmpty());
+    target.handle(stream.getBuffer(3, stream.length() - 1));
+    assertEquals(1, frames.size());
+    target.handle(stream.getBuffer(stream.length() - 1, stream.length()));
+
+    assertEquals(2, frames.size());
+    assertEquals(first, frames.get(0));
+    assertEquals(second, frames.get(1));
+  }
+
+  @Test(expected = DecodeException.class)
+  public void testInvalidLength() {
+    FrameCodec target = new FrameCodec(frame -> { });
+    target.handle(Buffer.buffer().appendInt(FrameCodec.MAX_FRAME_SIZE + 1));
+  }
+}
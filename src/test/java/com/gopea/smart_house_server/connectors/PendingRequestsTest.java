@@ -0,0 +1,105 @@
+package com.gopea.smart_house_server.connectors;
+
+import io.reactivex.observers.TestObserver;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+
+import static com.gopea.smart_house_server.connectors.Connectors.CORRELATION_ID_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PendingRequestsTest {
+
+  private static final String NAME_KEY = "name";
+  private static final long TIMEOUT_MILLIS = 5_000;
+
+  @Test
+  public void testOutOfOrder() {
+    List<JsonObject> written = new CopyOnWriteArrayList<>();
+    PendingRequests target = new PendingRequests(2);
+
+    TestObserver<JsonObject> first = target.submit(request("first"), written::add, TIMEOUT_MILLIS).test();
+    TestObserver<JsonObject> second = target.submit(request("second"), written::add, TIMEOUT_MILLIS).test();
+    assertEquals(2, written.size());
+
+    assertTrue(target.complete(response(written.get(1))));
+    second.assertValue(new JsonObject().put(NAME_KEY, "second"));
+    first.assertNoValues();
+
+    assertTrue(target.complete(response(written.get(0))));
+    first.assertValue(new JsonObject().put(NAME_KEY, "first"));
+    assertEquals(0, target.outstanding());
+  }
+
+  @Test
+  public void testWaitForSlot() {
+    List<JsonObject> written = new CopyOnWriteArrayList<>();
+    PendingRequests target = new PendingRequests(1);
+
+    target.submit(request("first"), written::add, TIMEOUT_MILLIS).test();
+    TestObserver<JsonObject> second = target.submit(request("second"), written::add, TIMEOUT_MILLIS).test();
+    assertEquals(1, written.size());
+    assertEquals(1, target.waiting());
+
+    target.complete(response(written.get(0)));
+
+    assertEquals(2, written.size());
+    assertEquals("second", written.get(1).getString(NAME_KEY));
+    target.complete(response(written.get(1)));
+    second.assertValue(new JsonObject().put(NAME_KEY, "second"));
+  }
+
+  @Test(timeout = 60_000L)
+  public void testTimeoutFreesSlot() throws InterruptedException {
+    List<JsonObject> written = new CopyOnWriteArrayList<>();
+    PendingRequests target = new PendingRequests(1);
+
+    TestObserver<JsonObject> first = target.submit(request("first"), written::add, 100).test();
+    TestObserver<JsonObject> second = target.submit(request("second"), written::add, TIMEOUT_MILLIS).test();
+    first.await();
+
+    first.assertError(TimeoutException.class);
+    assertEquals(2, written.size());
+    // A late response isn't an event and doesn't complete other requests
+    assertTrue(target.complete(response(written.get(0))));
+    second.assertNoValues();
+    second.dispose();
+    assertEquals(0, target.outstanding());
+  }
+
+  @Test
+  public void testFailChannel() {
+    List<JsonObject> written = new CopyOnWriteArrayList<>();
+    PendingRequests.Channel channel = written::add;
+    PendingRequests target = new PendingRequests(2);
+
+    TestObserver<JsonObject> request = target.submit(request("first"), channel, TIMEOUT_MILLIS).test();
+    assertEquals(1, target.outstanding(channel));
+    target.fail(channel, new IllegalStateException());
+
+    request.assertError(IllegalStateException.class);
+    assertEquals(0, target.outstanding(channel));
+  }
+
+  @Test
+  public void testNotResponse() {
+    PendingRequests target = new PendingRequests(1);
+
+    assertFalse(target.complete(new JsonObject().put("event", true)));
+  }
+
+  private static JsonObject request(String name) {
+    return new JsonObject().put(NAME_KEY, name);
+  }
+
+  private static JsonObject response(JsonObject request) {
+    return new JsonObject()
+        .put(NAME_KEY, request.getString(NAME_KEY))
+        .put(CORRELATION_ID_KEY, request.getLong(CORRELATION_ID_KEY));
+  }
+}
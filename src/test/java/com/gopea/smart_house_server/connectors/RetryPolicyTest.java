@@ -0,0 +1,157 @@
+package com.gopea.smart_house_server.connectors;
+
+import com.gopea.smart_house_server.common.InternalStatus;
+import com.gopea.smart_house_server.configs.StatusCode;
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.MESSAGE_KEY;
+import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+  private static final JsonObject OK_RESPONSE = new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK);
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalid() {
+    new RetryPolicy(1, 10, 10, 1, 1.5, 100);
+  }
+
+  @Test(timeout = 60_000L)
+  public void testRetry() {
+    RetryPolicy target = new RetryPolicy(3, 1, 10, 10, 0.5, 1_000);
+    AtomicInteger calls = new AtomicInteger();
+
+    JsonObject response = target.execute(() -> calls.incrementAndGet() < 3
+        ? Single.error(new IOException("failed"))
+        : Single.just(OK_RESPONSE)).blockingGet();
+
+    assertTrue(isInternalStatusOk(response));
+    assertEquals(3, calls.get());
+    assertEquals(RetryPolicy.State.CLOSED, target.getState());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testRetriesExhausted() {
+    RetryPolicy target = new RetryPolicy(2, 1, 10, 10, 0.5, 1_000);
+    AtomicInteger calls = new AtomicInteger();
+
+    JsonObject response = target.execute(() -> {
+      calls.incrementAndGet();
+      return Single.error(new IOException("failed"));
+    }).blockingGet();
+
+    assertFalse(isInternalStatusOk(response));
+    assertEquals(StatusCode.UNAVAILABLE.getStatusCode(), response.getInteger(EXTERNAL_STATUS_KEY).intValue());
+    assertEquals(3, calls.get());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testCommandNotRetried() {
+    RetryPolicy target = new RetryPolicy(3, 1, 10, 1, 1, 60_000);
+    AtomicInteger calls = new AtomicInteger();
+
+    // The command could have reached the device, so it isn't sent again, but the timeout is counted
+    JsonObject response = target.execute(() -> {
+      calls.incrementAndGet();
+      return Single.error(new TimeoutException());
+    }, false).blockingGet();
+
+    assertFalse(isInternalStatusOk(response));
+    assertEquals(1, calls.get());
+    assertEquals(RetryPolicy.State.OPEN, target.getState());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testNotSentCommandRetried() {
+    RetryPolicy target = new RetryPolicy(3, 1, 10, 10, 0.5, 1_000);
+    AtomicInteger calls = new AtomicInteger();
+
+    JsonObject response = target.execute(() -> calls.incrementAndGet() < 3
+        ? Single.error(new RequestNotSentException("failed", new IOException("closed")))
+        : Single.just(OK_RESPONSE), false).blockingGet();
+
+    assertTrue(isInternalStatusOk(response));
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void testDelay() {
+    RetryPolicy target = new RetryPolicy(10, 10, 50, 10, 0.5, 1_000);
+
+    for (int i = 0; i < 100; i++) {
+      assertTrue(target.getDelayMillis(0) <= 10);
+      assertTrue(target.getDelayMillis(1) <= 20);
+      assertTrue(target.getDelayMillis(9) <= 50);
+      assertTrue(target.getDelayMillis(100) >= 0);
+    }
+  }
+
+  @Test(timeout = 60_000L)
+  public void testOpenAndFailFast() {
+    RetryPolicy target = new RetryPolicy(0, 0, 0, 4, 0.5, 60_000);
+    AtomicInteger calls = new AtomicInteger();
+
+    target.execute(() -> Single.just(OK_RESPONSE)).blockingGet();
+    target.execute(() -> Single.just(OK_RESPONSE)).blockingGet();
+    target.execute(() -> Single.error(new IOException("failed"))).blockingGet();
+    assertEquals(RetryPolicy.State.CLOSED, target.getState());
+    target.execute(() -> Single.error(new IOException("failed"))).blockingGet();
+    assertEquals(RetryPolicy.State.OPEN, target.getState());
+    assertFalse(target.isCallPermitted());
+
+    JsonObject response = target.execute(() -> {
+      calls.incrementAndGet();
+      return Single.just(OK_RESPONSE);
+    }).blockingGet();
+
+    assertEquals(0, calls.get());
+    assertEquals(StatusCode.UNAVAILABLE.getStatusCode(), response.getInteger(EXTERNAL_STATUS_KEY).intValue());
+    assertEquals(RetryPolicy.CIRCUIT_OPEN_MESSAGE, response.getString(MESSAGE_KEY));
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHalfOpenProbe() throws InterruptedException {
+    RetryPolicy target = new RetryPolicy(3, 0, 0, 1, 1, 100);
+
+    target.execute(() -> Single.error(new IOException("failed"))).blockingGet();
+    assertEquals(RetryPolicy.State.OPEN, target.getState());
+    Thread.sleep(150);
+    assertTrue(target.isCallPermitted());
+
+    // The probe isn't retried and opens the breaker again
+    AtomicInteger calls = new AtomicInteger();
+    target.execute(() -> {
+      calls.incrementAndGet();
+      return Single.error(new IOException("failed"));
+    }).blockingGet();
+    assertEquals(1, calls.get());
+    assertEquals(RetryPolicy.State.OPEN, target.getState());
+
+    Thread.sleep(150);
+    assertTrue(isInternalStatusOk(target.execute(() -> Single.just(OK_RESPONSE)).blockingGet()));
+    assertEquals(RetryPolicy.State.CLOSED, target.getState());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testReset() {
+    RetryPolicy target = new RetryPolicy(0, 0, 0, 1, 1, 60_000);
+
+    target.execute(() -> Single.error(new IOException("failed"))).blockingGet();
+    assertFalse(target.isCallPermitted());
+    target.reset();
+
+    assertTrue(target.isCallPermitted());
+    assertEquals(RetryPolicy.State.CLOSED, target.getState());
+  }
+}
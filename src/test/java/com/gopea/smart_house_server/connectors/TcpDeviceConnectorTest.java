@@ -0,0 +1,270 @@
+package com.gopea.smart_house_server.connectors;
+
+import com.gopea.smart_house_server.common.InternalStatus;
+import com.gopea.smart_house_server.configs.StatusCode;
+import com.gopea.smart_house_server.devices.BaseDevice;
+import com.gopea.smart_house_server.devices.DeviceState;
+import com.gopea.smart_house_server.devices.Door;
+import io.reactivex.Single;
+import io.reactivex.subscribers.TestSubscriber;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.net.NetServer;
+import io.vertx.reactivex.core.net.NetSocket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
+import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_KEY;
+import static com.gopea.smart_house_server.connectors.Connectors.CORRELATION_ID_KEY;
+import static com.gopea.smart_house_server.connectors.Connectors.DEVICE_ID_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TcpDeviceConnectorTest {
+
+  private static final String HOST = "localhost";
+  private static final long SLOW_MILLIS = 300;
+
+  private Vertx vertx;
+  private NetServer device;
+  private AtomicInteger accepted;
+  private AtomicInteger heartbeats;
+  private AtomicInteger unanswered;
+  private volatile boolean muteHeartbeats;
+
+  @Before
+  public void before() {
+    vertx = Vertx.vertx();
+    accepted = new AtomicInteger();
+    heartbeats = new AtomicInteger();
+    unanswered = new AtomicInteger();
+    device = vertx.createNetServer()
+        .connectHandler(socket -> {
+          accepted.incrementAndGet();
+          socket.handler(new FrameCodec(frame -> answer(socket, frame)));
+        })
+        .rxListen(0)
+        .blockingGet();
+  }
+
+  @After
+  public void after() {
+    vertx.rxClose().blockingAwait();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testConnectAndSend() {
+    TcpDeviceConnector target = new TcpDeviceConnector(vertx, HOST, device.actualPort());
+
+    assertTrue(isInternalStatusOk(target.connect().blockingGet()));
+    assertTrue(target.isConnected().blockingGet());
+
+    JsonObject response = target.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "fast")).blockingGet();
+    assertTrue(isInternalStatusOk(response));
+    assertEquals("fast", response.getString(COMMAND_ACTION_KEY));
+    assertNull(response.getValue(CORRELATION_ID_KEY));
+
+    assertTrue(isInternalStatusOk(target.disconnect().blockingGet()));
+    assertFalse(target.isConnected().blockingGet());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testRequestsInFlightOnOneConnection() {
+    TcpDeviceConnector target = new TcpDeviceConnector(() -> vertx, HOST, device.actualPort(), 1, 5_000);
+    target.connect().blockingGet();
+    List<String> answered = new CopyOnWriteArrayList<>();
+
+    Single<JsonObject> slow = target.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "slow"))
+        .doOnSuccess(response -> answered.add(response.getString(COMMAND_ACTION_KEY)));
+    Single<JsonObject> fast = target.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "fast"))
+        .doOnSuccess(response -> answered.add(response.getString(COMMAND_ACTION_KEY)));
+    Single.merge(slow, fast).blockingSubscribe();
+
+    assertEquals(1, target.getConnectionsCount());
+    assertEquals("fast", answered.get(0));
+    assertEquals("slow", answered.get(1));
+  }
+
+  @Test(timeout = 60_000L)
+  public void testMaxInFlight() {
+    TcpDeviceConnector target = new TcpDeviceConnector(() -> vertx, HOST, device.actualPort(), 1, 1, 5_000);
+    target.connect().blockingGet();
+    List<String> answered = new CopyOnWriteArrayList<>();
+
+    Single<JsonObject> slow = target.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "slow"))
+        .doOnSuccess(response -> answered.add(response.getString(COMMAND_ACTION_KEY)));
+    Single<JsonObject> fast = target.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "fast"))
+        .doOnSuccess(response -> answered.add(response.getString(COMMAND_ACTION_KEY)));
+    Single.merge(slow, fast).blockingSubscribe();
+
+    // The fast request waits until the slow one frees the only slot
+    assertEquals("slow", answered.get(0));
+    assertEquals("fast", answered.get(1));
+    assertEquals(0, target.getRequestsCount());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testTimedOutCommandNotResent() {
+    TcpDeviceConnector target = new TcpDeviceConnector(() -> vertx, HOST, device.actualPort(), 1, 200);
+    target.connect().blockingGet();
+
+    JsonObject response = target.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "unanswered")).blockingGet();
+
+    assertFalse(isInternalStatusOk(response));
+    assertEquals(1, unanswered.get());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testEvents() {
+    TcpDeviceConnector target = new TcpDeviceConnector(vertx, HOST, device.actualPort());
+    target.connect().blockingGet();
+    TestSubscriber<JsonObject> events = target.events().test();
+
+    target.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "event")).blockingGet();
+
+    events.assertValue(new JsonObject().put("event", true).put(INTERNAL_STATUS_KEY, InternalStatus.OK));
+  }
+
+  @Test(timeout = 60_000L)
+  public void testDeviceHandlesEvents() {
+    TcpDeviceConnector connector = new TcpDeviceConnector(vertx, HOST, device.actualPort());
+    List<JsonObject> handled = new CopyOnWriteArrayList<>();
+    BaseDevice door = new Door(new JsonObject().put("host", HOST).put("port", device.actualPort())) {
+      @Override
+      protected Connector getConnector(String host, int port) {
+        return connector;
+      }
+
+      @Override
+      protected void handleEvent(JsonObject message) {
+        handled.add(message);
+      }
+    };
+    door.connect().blockingGet();
+
+    connector.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "event")).blockingGet();
+
+    // Devices don't put statuses into their events, such an event doesn't break the device
+    assertEquals(DeviceState.CONNECTED, door.getState().blockingGet());
+    assertEquals(1, handled.size());
+    assertTrue(handled.get(0).getBoolean("event"));
+    door.release();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testUnavailable() {
+    int port = device.actualPort();
+    device.rxClose().blockingAwait();
+    TcpDeviceConnector target = new TcpDeviceConnector(vertx, HOST, port);
+
+    JsonObject response = target.connect().blockingGet();
+
+    assertFalse(isInternalStatusOk(response));
+    assertEquals(StatusCode.UNAVAILABLE.getStatusCode(), response.getInteger(EXTERNAL_STATUS_KEY).intValue());
+    assertFalse(target.isConnected().blockingGet());
+    assertFalse(isInternalStatusOk(target.sendMessage(new JsonObject()).blockingGet()));
+  }
+
+  @Test(timeout = 60_000L)
+  public void testSharedConnection() {
+    TcpGateways gateways = new TcpGateways(() -> vertx, 10_000, 5_000);
+    TcpDeviceConnector first = new TcpDeviceConnector(gateways, "first", HOST, device.actualPort(), 16, 5_000);
+    TcpDeviceConnector second = new TcpDeviceConnector(gateways, "second", HOST, device.actualPort(), 16, 5_000);
+    assertTrue(isInternalStatusOk(first.connect().blockingGet()));
+    assertTrue(isInternalStatusOk(second.connect().blockingGet()));
+
+    // Both requests get the same correlation id, responses are routed by the device id
+    Single<JsonObject> slow = first.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "slow"));
+    Single<JsonObject> fast = second.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "fast"));
+    List<JsonObject> responses = Single.zip(slow, fast, Arrays::asList).blockingGet();
+
+    assertEquals("slow", responses.get(0).getString(COMMAND_ACTION_KEY));
+    assertEquals("fast", responses.get(1).getString(COMMAND_ACTION_KEY));
+    assertNull(responses.get(0).getValue(DEVICE_ID_KEY));
+    assertEquals(1, accepted.get());
+    assertEquals(1, gateways.size());
+    assertEquals(1, first.getConnectionsCount());
+
+    first.disconnect().blockingGet();
+    assertEquals(1, gateways.size());
+    assertTrue(isInternalStatusOk(second.sendMessage(new JsonObject().put(COMMAND_ACTION_KEY, "fast")).blockingGet()));
+    second.disconnect().blockingGet();
+    assertEquals(0, gateways.size());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testReleaseGateway() {
+    TcpGateways gateways = new TcpGateways(() -> vertx, 10_000, 5_000);
+    TcpDeviceConnector target = new TcpDeviceConnector(gateways, "first", HOST, device.actualPort(), 16, 5_000);
+    target.connect().blockingGet();
+    assertEquals(1, gateways.size());
+
+    // A deleted device isn't disconnected, but it doesn't hold the gateway anymore
+    target.release();
+
+    assertEquals(0, gateways.size());
+    assertFalse(target.isConnected().blockingGet());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHeartbeat() throws InterruptedException {
+    TcpGateways gateways = new TcpGateways(() -> vertx, 50, 5_000);
+    TcpDeviceConnector target = new TcpDeviceConnector(gateways, "first", HOST, device.actualPort(), 16, 5_000);
+    target.connect().blockingGet();
+
+    while (heartbeats.get() < 2) {
+      Thread.sleep(10);
+    }
+    assertTrue(target.isConnected().blockingGet());
+
+    // A gateway which doesn't answer heartbeats is disconnected
+    muteHeartbeats = true;
+    while (target.isConnected().blockingGet()) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, target.getConnectionsCount());
+  }
+
+  /**
+   * Plays a device: "slow" is answered later than others, "unanswered" isn't answered, "event" is answered
+   * after a message which the device sends by itself.
+   */
+  private void answer(NetSocket socket, JsonObject frame) {
+    JsonObject response = new JsonObject()
+        .put(INTERNAL_STATUS_KEY, InternalStatus.OK)
+        .put(COMMAND_ACTION_KEY, frame.getString(COMMAND_ACTION_KEY))
+        .put(CORRELATION_ID_KEY, frame.getValue(CORRELATION_ID_KEY));
+    if (frame.containsKey(DEVICE_ID_KEY)) {
+      response.put(DEVICE_ID_KEY, frame.getValue(DEVICE_ID_KEY));
+    }
+    switch (frame.getString(COMMAND_ACTION_KEY, "")) {
+      case TcpGateway.HEARTBEAT_ACTION:
+        heartbeats.incrementAndGet();
+        if (muteHeartbeats) {
+          return;
+        }
+        break;
+      case "unanswered":
+        unanswered.incrementAndGet();
+        return;
+      case "slow":
+        vertx.setTimer(SLOW_MILLIS, ign -> socket.write(FrameCodec.encode(response)));
+        return;
+      case "event":
+        socket.write(FrameCodec.encode(new JsonObject().put("event", true)));
+        break;
+    }
+    socket.write(FrameCodec.encode(response));
+  }
+}
@@ -6,6 +6,7 @@ import com.gopea.smart_house_server.routers.users.User;
 import com.gopea.smart_house_server.routers.users.UserType;
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.reactivex.Single;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
@@ -253,4 +254,37 @@ public class FileUserStorageTest {
         .subscribe();
   }
 
+  @Test(timeout = 60000)
+  public void testConcurrentAddUsers(TestContext context) {
+    final Async async = context.async();
+    Flowable.range(0, 100)
+        .flatMapSingle(i -> target.addUser(new User("user" + i, UserType.USER, "password")))
+        .ignoreElements()
+        .andThen(Single.defer(() -> new FileUserStorage(vertx, path).getUsers()))
+        .flatMapCompletable(list -> Completable.fromAction(() -> {
+          context.assertEquals(100, list.size());
+          context.assertFalse(vertx.fileSystem().existsBlocking(path + ".tmp"));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60000)
+  public void testReload(TestContext context) {
+    final Async async = context.async();
+    User user = new User("test_user", UserType.USER, "password");
+    target.addUser(user)
+        .ignoreElement()
+        .andThen(vertx.fileSystem().rxWriteFile(path,
+            Buffer.newInstance(new JsonObject().put(USERS_KEY, new JsonObject()).toBuffer())))
+        .andThen(target.getUser(user.getUsername()).isEmpty())
+        .flatMapCompletable(isEmpty -> Completable.fromAction(() -> context.assertFalse(isEmpty)))
+        .andThen(target.reload())
+        .andThen(Single.defer(() -> target.getUser(user.getUsername()).isEmpty()))
+        .flatMapCompletable(isEmpty -> Completable.fromAction(() -> {
+          context.assertTrue(isEmpty);
+          async.complete();
+        }))
+        .subscribe();
+  }
 }
@@ -0,0 +1,178 @@
+package com.gopea.smart_house_server.data_base;
+
+import com.gopea.smart_house_server.devices.BaseDevice;
+import com.gopea.smart_house_server.devices.Device;
+import com.gopea.smart_house_server.devices.DevicePool;
+import com.gopea.smart_house_server.devices.DeviceType;
+import com.gopea.smart_house_server.devices.Door;
+import com.gopea.smart_house_server.devices.Lamp;
+import io.reactivex.Completable;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.reactivex.core.Vertx;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.gopea.smart_house_server.TestHelpers.deleteDeviceFiles;
+import static com.gopea.smart_house_server.devices.BaseDevice.UPDATE_TIME_KEY;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class JournalDeviceStorageTest {
+  private static final JsonObject BASE_OBJECT = new JsonObject()
+      .put(BaseDevice.HOST_KEY, "host")
+      .put(BaseDevice.PORT_KEY, 8080);
+
+  private Path directory;
+  private String journal;
+  private String snapshot;
+
+  @Before
+  public void before() throws Exception {
+    directory = Files.createTempDirectory("journal");
+    journal = directory.resolve("devices.journal").toString();
+    snapshot = directory.resolve("devices.snapshot").toString();
+  }
+
+  @After
+  public void after(TestContext context) {
+    for (File file : directory.toFile().listFiles()) {
+      file.delete();
+    }
+    directory.toFile().delete();
+    Vertx vertx = Vertx.vertx();
+    final Async async = context.async();
+    deleteDeviceFiles(vertx)
+        .andThen(vertx.rxClose())
+        .andThen(Completable.fromAction(async::complete))
+        .subscribe();
+  }
+
+  @Test(timeout = 60000)
+  public void testRestore() {
+    DeviceStorage target = new JournalDeviceStorage(journal, snapshot);
+    target.load().blockingAwait();
+    String lampId = target.addDevice(new Lamp(BASE_OBJECT)).blockingGet().getString(Storages.ID);
+    String doorId = target.addDevice(new Door(BASE_OBJECT)).blockingGet().getString(Storages.ID);
+    String deletedId = target.addDevice(new Lamp(BASE_OBJECT)).blockingGet().getString(Storages.ID);
+    List<Pair<String, Device>> members = new ArrayList<>();
+    members.add(new ImmutablePair<>(lampId, target.getDevice(lampId).blockingGet()));
+    String poolId = target.addDevice(new DevicePool(members, DeviceType.LAMP)).blockingGet().getString(Storages.ID);
+    target.deleteDevice(deletedId).blockingGet();
+    target.getDevice(doorId).blockingGet().update(new JsonObject().put(UPDATE_TIME_KEY, 10)).blockingGet();
+    target.updateDevice(doorId).blockingGet();
+
+    DeviceStorage restored = new JournalDeviceStorage(journal, snapshot);
+    restored.load().blockingAwait();
+
+    assertEquals(3, restored.getDevices().blockingGet().size());
+    assertNull(restored.getDevice(deletedId).blockingGet());
+    assertEquals(DeviceType.LAMP, restored.getDevice(lampId).blockingGet().getType());
+    assertEquals(10, restored.getDevice(doorId).blockingGet().toJson().getInteger(UPDATE_TIME_KEY).intValue());
+    Device pool = restored.getDevice(poolId).blockingGet();
+    assertTrue(pool instanceof DevicePool);
+    assertEquals(new JsonArray().add(lampId), pool.toJson().getJsonArray(JournalDeviceStorage.DEVICES_KEY));
+
+    String newId = restored.addDevice(new Lamp(BASE_OBJECT)).blockingGet().getString(Storages.ID);
+    assertTrue(RuntimeDeviceStorage.ID_ORDER.compare(poolId, newId) < 0);
+  }
+
+  @Test(timeout = 60000)
+  public void testCompaction() throws Exception {
+    DeviceStorage target = new JournalDeviceStorage(journal, snapshot, 10);
+    target.load().blockingAwait();
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      ids.add(target.addDevice(new Lamp(BASE_OBJECT)).blockingGet().getString(Storages.ID));
+    }
+    for (int i = 0; i < 5; i++) {
+      target.deleteDevice(ids.get(i)).blockingGet();
+    }
+
+    assertTrue(new File(snapshot).exists());
+    assertFalse(new File(snapshot + ".tmp").exists());
+    assertTrue(Files.readAllLines(new File(journal).toPath()).size() < 10);
+
+    DeviceStorage restored = new JournalDeviceStorage(journal, snapshot, 10);
+    restored.load().blockingAwait();
+    List<Pair<String, Device>> devices = restored.getDevices().blockingGet();
+    assertEquals(20, devices.size());
+    for (int i = 0; i < devices.size(); i++) {
+      assertEquals(ids.get(i + 5), devices.get(i).getLeft());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testBrokenLastRecord() throws Exception {
+    DeviceStorage target = new JournalDeviceStorage(journal, snapshot);
+    target.load().blockingAwait();
+    String id = target.addDevice(new Door(BASE_OBJECT)).blockingGet().getString(Storages.ID);
+    Files.write(new File(journal).toPath(), "{\"id\":".getBytes(), StandardOpenOption.APPEND);
+
+    DeviceStorage restored = new JournalDeviceStorage(journal, snapshot);
+    restored.load().blockingAwait();
+
+    assertEquals(1, restored.getDevices().blockingGet().size());
+    assertEquals(DeviceType.DOOR, restored.getDevice(id).blockingGet().getType());
+  }
+
+  @Test(timeout = 60000)
+  public void testLoadMany() {
+    DeviceStorage target = new JournalDeviceStorage(journal, snapshot);
+    target.load().blockingAwait();
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      Device device = i % 2 == 0 ? new DevicePool(new ArrayList<>(), DeviceType.DOOR) : new Lamp(BASE_OBJECT);
+      ids.add(target.addDevice(device).blockingGet().getString(Storages.ID));
+    }
+
+    DeviceStorage restored = new JournalDeviceStorage(journal, snapshot);
+    restored.load().blockingAwait();
+
+    List<Pair<String, Device>> devices = restored.getDevices().blockingGet();
+    assertEquals(2000, devices.size());
+    for (int i = 0; i < devices.size(); i++) {
+      assertEquals(ids.get(i), devices.get(i).getLeft());
+      if (i % 2 == 0) {
+        assertTrue(devices.get(i).getRight() instanceof DevicePool);
+        assertEquals(DeviceType.DOOR, devices.get(i).getRight().getType());
+      } else {
+        assertEquals(DeviceType.LAMP, devices.get(i).getRight().getType());
+      }
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testUpdatePoolSavesMembers() {
+    DeviceStorage target = new JournalDeviceStorage(journal, snapshot);
+    target.load().blockingAwait();
+    String doorId = target.addDevice(new Door(BASE_OBJECT)).blockingGet().getString(Storages.ID);
+    List<Pair<String, Device>> members = new ArrayList<>();
+    members.add(new ImmutablePair<>(doorId, target.getDevice(doorId).blockingGet()));
+    String poolId = target.addDevice(new DevicePool(members, DeviceType.DOOR)).blockingGet().getString(Storages.ID);
+    target.getDevice(poolId).blockingGet().update(new JsonObject().put(UPDATE_TIME_KEY, 10)).blockingGet();
+    target.updateDevice(poolId).blockingGet();
+
+    DeviceStorage restored = new JournalDeviceStorage(journal, snapshot);
+    restored.load().blockingAwait();
+
+    assertEquals(10, restored.getDevice(doorId).blockingGet().toJson().getInteger(UPDATE_TIME_KEY).intValue());
+  }
+}
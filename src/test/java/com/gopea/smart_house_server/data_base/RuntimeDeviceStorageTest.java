@@ -4,7 +4,11 @@ import com.gopea.smart_house_server.common.Helpers;
 import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.devices.BaseDevice;
 import com.gopea.smart_house_server.devices.Device;
+import com.gopea.smart_house_server.devices.DevicePool;
+import com.gopea.smart_house_server.devices.DeviceState;
+import com.gopea.smart_house_server.devices.DeviceType;
 import com.gopea.smart_house_server.devices.Door;
+import com.gopea.smart_house_server.devices.Lamp;
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
 import io.vertx.core.json.JsonObject;
@@ -17,9 +21,25 @@ import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static com.gopea.smart_house_server.TestHelpers.deleteDeviceFiles;
 import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
 
 @RunWith(VertxUnitRunner.class)
 public class RuntimeDeviceStorageTest {
@@ -146,4 +166,137 @@ public class RuntimeDeviceStorageTest {
         .subscribe();
 
   }
+
+  @Test(timeout = 60000)
+  public void testParallelLoad() throws Exception {
+    DeviceStorage target = new RuntimeDeviceStorage();
+    int threads = 8;
+    int devicesPerThread = 1000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Set<String> keptIds = ConcurrentHashMap.newKeySet();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      futures.add(executor.submit(() -> {
+        for (int j = 0; j < devicesPerThread; j++) {
+          Device device = new DevicePool(new ArrayList<>(), DeviceType.DOOR);
+          String id = target.addDevice(device).blockingGet().getString(Storages.ID);
+          assertEquals(device, target.getDevice(id).blockingGet());
+          if (j % 2 == 0) {
+            assertTrue(isInternalStatusOk(target.deleteDevice(id).blockingGet()));
+            assertNull(target.getDevice(id).blockingGet());
+          } else {
+            keptIds.add(id);
+          }
+          target.getDevices().blockingGet();
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    List<Pair<String, Device>> devices = target.getDevices().blockingGet();
+    assertEquals(threads * devicesPerThread / 2, keptIds.size());
+    assertEquals(keptIds.size(), devices.size());
+    Set<String> ids = new HashSet<>();
+    for (Pair<String, Device> pair : devices) {
+      ids.add(pair.getLeft());
+    }
+    assertEquals(keptIds, ids);
+  }
+
+  @Test(timeout = 60000)
+  public void testGetDevicesSnapshot() {
+    DeviceStorage target = new RuntimeDeviceStorage();
+    String first = target.addDevice(new DevicePool(new ArrayList<>(), DeviceType.DOOR)).blockingGet().getString(Storages.ID);
+    String second = target.addDevice(new DevicePool(new ArrayList<>(), DeviceType.DOOR)).blockingGet().getString(Storages.ID);
+
+    List<Pair<String, Device>> snapshot = target.getDevices().blockingGet();
+    assertSame(snapshot, target.getDevices().blockingGet());
+    assertEquals(first, snapshot.get(0).getLeft());
+    assertEquals(second, snapshot.get(1).getLeft());
+
+    target.deleteDevice(first).blockingGet();
+    assertEquals(2, snapshot.size());
+    assertEquals(1, target.getDevices().blockingGet().size());
+  }
+
+  @Test(timeout = 60000)
+  public void testGetDevicesByIds() {
+    DeviceStorage target = new RuntimeDeviceStorage();
+    String first = target.addDevice(new DevicePool(new ArrayList<>(), DeviceType.DOOR)).blockingGet().getString(Storages.ID);
+    String second = target.addDevice(new DevicePool(new ArrayList<>(), DeviceType.DOOR)).blockingGet().getString(Storages.ID);
+
+    Map<String, Device> devices = target.getDevices(Arrays.asList(second, "udu", first, second)).blockingGet();
+
+    assertEquals(Arrays.asList(second, first), new ArrayList<>(devices.keySet()));
+    assertSame(target.getDevice(first).blockingGet(), devices.get(first));
+    assertTrue(target.getDevices(Collections.emptyList()).blockingGet().isEmpty());
+  }
+
+  @Test(timeout = 60000)
+  public void testGetDevicesByTypeAndState() {
+    DeviceStorage target = new RuntimeDeviceStorage();
+    Device door = new Door(new JsonObject()
+        .put(BaseDevice.HOST_KEY, "host")
+        .put(BaseDevice.PORT_KEY, 8080)
+    );
+    Device lamp = new Lamp(new JsonObject()
+        .put(BaseDevice.HOST_KEY, "host")
+        .put(BaseDevice.PORT_KEY, 8080)
+    );
+    String doorId = target.addDevice(door).blockingGet().getString(Storages.ID);
+    String lampId = target.addDevice(lamp).blockingGet().getString(Storages.ID);
+    String poolId = target.addDevice(new DevicePool(new ArrayList<>(), DeviceType.DOOR)).blockingGet().getString(Storages.ID);
+
+    List<Pair<String, Device>> doors = target.getDevices(DeviceType.DOOR, null).blockingGet();
+    assertEquals(1, doors.size());
+    assertEquals(doorId, doors.get(0).getLeft());
+
+    assertEquals(2, target.getDevices(null, DeviceState.DISCONNECTED).blockingGet().size());
+    assertEquals(poolId, target.getDevices(null, DeviceState.CONNECTED).blockingGet().get(0).getLeft());
+
+    door.connect().blockingGet();
+    assertEquals(1, target.getDevices(DeviceType.DOOR, DeviceState.CONNECTED).blockingGet().size());
+    assertTrue(target.getDevices(DeviceType.DOOR, DeviceState.DISCONNECTED).blockingGet().isEmpty());
+    assertEquals(lampId, target.getDevices(null, DeviceState.DISCONNECTED).blockingGet().get(0).getLeft());
+
+    target.deleteDevice(doorId).blockingGet();
+    assertTrue(target.getDevices(DeviceType.DOOR, null).blockingGet().isEmpty());
+    assertEquals(1, target.getDevices(null, DeviceState.CONNECTED).blockingGet().size());
+
+    door.disconnect().blockingGet();
+    assertEquals(1, target.getDevices(null, DeviceState.DISCONNECTED).blockingGet().size());
+  }
+
+  @Test(timeout = 60000)
+  public void testGetDevicesPage() {
+    DeviceStorage target = new RuntimeDeviceStorage();
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      ids.add(target.addDevice(new DevicePool(new ArrayList<>(), DeviceType.DOOR)).blockingGet().getString(Storages.ID));
+    }
+
+    List<String> pagedIds = new ArrayList<>();
+    String cursor = null;
+    while (true) {
+      List<Pair<String, Device>> page = target.getDevices(null, null, cursor, 10).blockingGet();
+      if (page.isEmpty()) {
+        break;
+      }
+      assertTrue(page.size() <= 10);
+      for (Pair<String, Device> pair : page) {
+        pagedIds.add(pair.getLeft());
+      }
+      cursor = page.get(page.size() - 1).getLeft();
+    }
+    assertEquals(ids, pagedIds);
+
+    target.deleteDevice(ids.get(10)).blockingGet();
+    List<Pair<String, Device>> page = target.getDevices(null, null, ids.get(10), 2).blockingGet();
+    assertEquals(ids.get(11), page.get(0).getLeft());
+    assertEquals(ids.get(12), page.get(1).getLeft());
+  }
 }
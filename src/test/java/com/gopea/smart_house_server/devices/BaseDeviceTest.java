@@ -1,6 +1,9 @@
 package com.gopea.smart_house_server.devices;
 
+import com.gopea.smart_house_server.common.InternalStatus;
 import com.gopea.smart_house_server.configs.StatusCode;
+import com.gopea.smart_house_server.connectors.BaseTestDeviceConnector;
+import com.gopea.smart_house_server.connectors.TcpDeviceConnector;
 import io.reactivex.Completable;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
@@ -13,9 +16,16 @@ import org.junit.runner.RunWith;
 
 import static com.gopea.smart_house_server.TestHelpers.deleteDeviceFiles;
 import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
+import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_KEY;
+import static com.gopea.smart_house_server.devices.BaseDevice.DEFAULT_METRICS_SIZE;
+import static com.gopea.smart_house_server.devices.BaseDevice.GATEWAY_DEVICE_ID_KEY;
+import static com.gopea.smart_house_server.devices.BaseDevice.METRICS_SIZE_KEY;
 import static com.gopea.smart_house_server.devices.BaseDevice.UPDATE_TIME_KEY;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
 
 @RunWith(VertxUnitRunner.class)
 public class BaseDeviceTest {
@@ -103,6 +113,73 @@ public class BaseDeviceTest {
 
   }
 
+    @Test
+    public void testMetricsSize() {
+        BaseDevice door = new Door(BASE_OBJECT.copy().put(METRICS_SIZE_KEY, 10));
+        assertEquals(10, door.toJson().getInteger(METRICS_SIZE_KEY).intValue());
+
+        BaseDevice defaultDoor = new Door(BASE_OBJECT);
+        assertEquals(DEFAULT_METRICS_SIZE, defaultDoor.toJson().getInteger(METRICS_SIZE_KEY).intValue());
+
+        BaseDevice invalidDoor = new Door(BASE_OBJECT.copy().put(METRICS_SIZE_KEY, -1));
+        assertEquals(1, invalidDoor.toJson().getInteger(METRICS_SIZE_KEY).intValue());
+    }
+
+    @Test
+    public void testGatewayDevice() {
+        BaseDevice door = new Door(BASE_OBJECT.copy().put(GATEWAY_DEVICE_ID_KEY, "door_1"));
+        assertTrue(door.connector instanceof TcpDeviceConnector);
+        assertEquals("door_1", door.toJson().getString(GATEWAY_DEVICE_ID_KEY));
+
+        BaseDevice defaultDoor = new Door(BASE_OBJECT);
+        assertTrue(defaultDoor.connector instanceof BaseTestDeviceConnector);
+        assertFalse(defaultDoor.toJson().containsKey(GATEWAY_DEVICE_ID_KEY));
+    }
+
+    @Test(timeout = 60000)
+    public void testShadow(TestContext context) {
+        final Async async = context.async();
+
+        BaseDevice device = new Lamp(BASE_OBJECT);
+        context.assertFalse(device.getShadow().isComplete());
+        context.assertNull(device.getShadow().toJson());
+
+        long start = System.currentTimeMillis();
+        device.connect()
+                .flatMap(ign -> device.getData())
+                .flatMapCompletable(data -> Completable.fromAction(() -> {
+                    context.assertTrue(isInternalStatusOk(data));
+                    context.assertFalse(device.getShadow().isComplete());
+                }))
+                .andThen(device.getStatus())
+                .flatMapCompletable(status -> Completable.fromAction(() -> {
+                    DeviceShadow shadow = device.getShadow();
+                    context.assertTrue(shadow.isComplete());
+                    context.assertTrue(shadow.getUpdatedAt() >= start);
+                    context.assertEquals(shadow.getUpdatedAt(), shadow.toJson().getLong(DeviceShadow.UPDATED_AT_KEY));
+                    async.complete();
+                }))
+                .subscribe();
+    }
+
+    @Test(timeout = 60000)
+    public void testEvents() {
+        BaseDevice device = new Lamp(BASE_OBJECT);
+        BaseTestDeviceConnector connector = (BaseTestDeviceConnector) device.connector;
+        device.connect().blockingGet();
+
+        connector.sendEvent(new JsonObject()
+                .put(INTERNAL_STATUS_KEY, InternalStatus.OK)
+                .put(COMMAND_ACTION_KEY, DeviceAction.GET_DATA.toString().toLowerCase()));
+
+        assertEquals(1, device.getMetrics().blockingGet().size());
+        assertEquals(DeviceState.CONNECTED, device.getState().blockingGet());
+
+        connector.sendEvent(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.FAILED));
+
+        assertEquals(DeviceState.ERROR, device.getState().blockingGet());
+    }
+
     @Test(timeout = 180_000)
     public void testMetricsMaxSize(TestContext context) {
         final Async async = context.async();
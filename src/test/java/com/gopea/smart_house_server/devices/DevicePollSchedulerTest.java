@@ -0,0 +1,114 @@
+package com.gopea.smart_house_server.devices;
+
+import io.reactivex.Completable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class DevicePollSchedulerTest {
+
+  @Test(timeout = 60000)
+  public void testRegister() throws Exception {
+    DevicePollScheduler target = new DevicePollScheduler(1);
+    TestPollable pollable = new TestPollable();
+
+    target.register(pollable);
+    assertTrue(target.isRegistered(pollable));
+    Thread.sleep(200);
+    assertTrue(pollable.polls.get() > 1);
+  }
+
+  @Test(timeout = 60000)
+  public void testUnregister() throws Exception {
+    DevicePollScheduler target = new DevicePollScheduler(1);
+    TestPollable pollable = new TestPollable();
+
+    target.register(pollable);
+    target.unregister(pollable);
+    assertFalse(target.isRegistered(pollable));
+    Thread.sleep(50);
+    int polls = pollable.polls.get();
+    Thread.sleep(200);
+    assertEquals(polls, pollable.polls.get());
+  }
+
+  @Test(timeout = 60000)
+  public void testStopWhenNotPollable() throws Exception {
+    DevicePollScheduler target = new DevicePollScheduler(1);
+    TestPollable pollable = new TestPollable();
+    pollable.pollable = false;
+
+    target.register(pollable);
+    Thread.sleep(200);
+    assertFalse(target.isRegistered(pollable));
+    assertEquals(0, pollable.polls.get());
+  }
+
+  @Test(timeout = 60000)
+  public void testThreadCountDoesNotGrow() throws Exception {
+    DevicePollScheduler target = new DevicePollScheduler(2);
+    long threadsBefore = countPollThreads();
+    List<TestPollable> pollables = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      TestPollable pollable = new TestPollable();
+      pollables.add(pollable);
+      target.register(pollable);
+    }
+    Thread.sleep(500);
+    assertEquals(1000, target.size());
+    for (TestPollable pollable : pollables) {
+      assertTrue(pollable.polls.get() > 0);
+    }
+    assertTrue(countPollThreads() - threadsBefore <= 2);
+  }
+
+  @Test(timeout = 60000)
+  public void testPollOnlyWhenDue() throws Exception {
+    DevicePollScheduler target = new DevicePollScheduler(1);
+    TestPollable pollable = new TestPollable();
+    pollable.intervalMillis = 60_000;
+
+    target.register(pollable);
+    Thread.sleep(200);
+    assertEquals(1, pollable.polls.get());
+
+    // Registration again re-arms the device with its new interval
+    pollable.intervalMillis = 10;
+    target.register(pollable);
+    Thread.sleep(200);
+    assertTrue(pollable.polls.get() > 2);
+  }
+
+  private static long countPollThreads() {
+    return Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> thread.getName().startsWith("device-poll-"))
+        .count();
+  }
+
+  private static class TestPollable implements DevicePollScheduler.Pollable {
+    private final AtomicInteger polls = new AtomicInteger();
+    private volatile boolean pollable = true;
+    private volatile long intervalMillis = 10;
+
+    @Override
+    public boolean isPollable() {
+      return pollable;
+    }
+
+    @Override
+    public long getPollIntervalMillis() {
+      return intervalMillis;
+    }
+
+    @Override
+    public Completable poll(long now) {
+      return Completable.fromAction(polls::incrementAndGet);
+    }
+  }
+}
@@ -5,7 +5,9 @@ import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.connectors.BaseTestDeviceConnector;
 import com.gopea.smart_house_server.data_base.Storages;
 import com.gopea.smart_house_server.examples.StandardDeviceExample;
+import com.gopea.smart_house_server.common.InternalStatus;
 import io.reactivex.Completable;
+import io.reactivex.Single;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
@@ -13,19 +15,25 @@ import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import io.vertx.reactivex.core.Vertx;
 import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
 import java.net.IDN;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.gopea.smart_house_server.TestHelpers.deleteDeviceFiles;
 import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.isInternalStatusOk;
 import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_KEY;
 import static com.gopea.smart_house_server.data_base.Storages.ID;
@@ -34,6 +42,11 @@ import static com.gopea.smart_house_server.devices.BaseDevice.UPDATE_TIME_KEY;
 import static com.gopea.smart_house_server.examples.StandardDeviceExample.DATA_KEY;
 import static com.gopea.smart_house_server.examples.StandardDeviceExample.STATE_KEY;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(VertxUnitRunner.class)
 public class DevicePoolTest {
@@ -77,6 +90,147 @@ public class DevicePoolTest {
   }
 
 
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructorInvalidLimits() {
+    new DevicePool(new ArrayList<>(), DeviceType.DOOR, 0, 1000);
+  }
+
+  @Test(timeout = 60000)
+  public void testCommandTimeout() {
+    Door slow = mock(Door.class);
+    when(slow.getType()).thenReturn(DeviceType.DOOR);
+    when(slow.getStatus()).thenReturn(Single.never());
+    Door fast = mock(Door.class);
+    when(fast.getType()).thenReturn(DeviceType.DOOR);
+    when(fast.getStatus()).thenReturn(Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK)));
+    DevicePool target = new DevicePool(Arrays.asList(
+        new ImmutablePair<>("slow", slow),
+        new ImmutablePair<>("fast", fast)),
+        DeviceType.DOOR, 2, 100);
+
+    JsonObject response = target.getStatus().blockingGet();
+
+    assertFalse(isInternalStatusOk(response));
+    JsonArray responses = response.getJsonArray(DevicePool.RESPONSES_KEY);
+    assertEquals(2, responses.size());
+    for (int i = 0; i < responses.size(); i++) {
+      JsonObject entry = responses.getJsonObject(i);
+      assertEquals("slow".equals(entry.getString(ID)), entry.getBoolean(DevicePool.TIMED_OUT_KEY, false).booleanValue());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testMaxConcurrency() {
+    AtomicInteger current = new AtomicInteger();
+    AtomicInteger max = new AtomicInteger();
+    List<Pair<String, Device>> devices = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Door door = mock(Door.class);
+      when(door.getType()).thenReturn(DeviceType.DOOR);
+      when(door.getStatus()).thenReturn(Single.defer(() -> {
+        max.accumulateAndGet(current.incrementAndGet(), Math::max);
+        return Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK))
+            .delay(10, TimeUnit.MILLISECONDS)
+            .doFinally(current::decrementAndGet);
+      }));
+      devices.add(new ImmutablePair<>("device-" + i, door));
+    }
+    DevicePool target = new DevicePool(devices, DeviceType.DOOR, 3, 10_000);
+
+    JsonObject response = target.getStatus().blockingGet();
+
+    assertTrue(isInternalStatusOk(response));
+    assertEquals(20, response.getJsonArray(DevicePool.RESPONSES_KEY).size());
+    assertTrue(max.get() <= 3);
+  }
+
+  @Test(timeout = 60000)
+  public void testStreamCommand() {
+    Door failed = mock(Door.class);
+    when(failed.getType()).thenReturn(DeviceType.DOOR);
+    when(failed.getData()).thenReturn(Single.error(new RuntimeException("failed")));
+    Door ok = mock(Door.class);
+    when(ok.getType()).thenReturn(DeviceType.DOOR);
+    when(ok.getData()).thenReturn(Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK)));
+    DevicePool target = new DevicePool(Arrays.asList(
+        new ImmutablePair<>("failed", failed),
+        new ImmutablePair<>("ok", ok)),
+        DeviceType.DOOR);
+
+    List<JsonObject> results = target.streamCommand(Device::getData).toList().blockingGet();
+
+    assertEquals(2, results.size());
+    for (JsonObject result : results) {
+      assertEquals("ok".equals(result.getString(ID)), isInternalStatusOk(result));
+    }
+  }
+
+  @Test
+  public void testSummarize() {
+    JsonObject ok = DevicePool.summarize(2, 0);
+    JsonObject failed = DevicePool.summarize(2, 1);
+
+    assertTrue(isInternalStatusOk(ok));
+    assertEquals(StatusCode.SUCCESS.getStatusCode(), ok.getInteger(EXTERNAL_STATUS_KEY).intValue());
+    assertFalse(isInternalStatusOk(failed));
+    assertEquals(1, failed.getInteger(DevicePool.FAILED_KEY).intValue());
+    assertEquals(2, failed.getInteger(DevicePool.TOTAL_KEY).intValue());
+  }
+
+  @Test
+  public void testUpdateInvalidLimits() {
+    JsonObject response = device.update(new JsonObject().put(DevicePool.MAX_CONCURRENCY_KEY, -1)).blockingGet();
+
+    assertFalse(isInternalStatusOk(response));
+    assertEquals(StatusCode.BAD_REQUEST.getStatusCode(), response.getInteger(EXTERNAL_STATUS_KEY).intValue());
+  }
+
+  @Test
+  public void testUpdateLimits() {
+    JsonObject response = device.update(new JsonObject()
+        .put(DevicePool.MAX_CONCURRENCY_KEY, 4)
+        .put(DevicePool.COMMAND_TIMEOUT_KEY, 500)).blockingGet();
+
+    assertTrue(isInternalStatusOk(response));
+    assertEquals(4, device.toJson().getInteger(DevicePool.MAX_CONCURRENCY_KEY).intValue());
+    assertEquals(500, device.toJson().getLong(DevicePool.COMMAND_TIMEOUT_KEY).longValue());
+  }
+
+  @Test
+  public void testUpdateRejectedKeepsLimits() {
+    JsonObject response = device.update(new JsonObject()
+        .put(DevicePool.MAX_CONCURRENCY_KEY, 4)
+        .put(DevicePool.ADD_KEY, new JsonArray(Collections.singletonList("udu")))).blockingGet();
+
+    assertEquals(StatusCode.UNPROCESSABLE_ENTITY.getStatusCode(), response.getInteger(EXTERNAL_STATUS_KEY).intValue());
+    assertEquals(DevicePool.DEFAULT_MAX_CONCURRENCY, device.toJson().getInteger(DevicePool.MAX_CONCURRENCY_KEY).intValue());
+  }
+
+  @Test
+  public void testUpdateFailedMemberKeepsPool() {
+    Device leaving = new Door(BASE_OBJECT);
+    String leavingId = Storages.DEVICE_STORAGE.addDevice(leaving).blockingGet().getString(ID);
+    Device broken = new Door(BASE_OBJECT) {
+      @Override
+      public Single<JsonObject> update(JsonObject object) {
+        return Single.just(Helpers.createResponseJson(InternalStatus.FAILED, StatusCode.ERROR, new JsonObject()));
+      }
+    };
+    DevicePool pool = new DevicePool(Arrays.asList(
+        new ImmutablePair<>(leavingId, leaving),
+        new ImmutablePair<>("broken", broken)),
+        DeviceType.DOOR);
+
+    JsonObject response = pool.update(new JsonObject()
+        .put(UPDATE_TIME_KEY, 10)
+        .put(DevicePool.MAX_CONCURRENCY_KEY, 4)
+        .put(DevicePool.REMOVE_KEY, new JsonArray(Collections.singletonList(leavingId)))).blockingGet();
+
+    assertFalse(isInternalStatusOk(response));
+    assertEquals(2, pool.toJson().getJsonArray("devices").size());
+    assertEquals(DevicePool.DEFAULT_MAX_CONCURRENCY, pool.toJson().getInteger(DevicePool.MAX_CONCURRENCY_KEY).intValue());
+  }
+
   @Test
   public void testGetType() {
     assertEquals(DeviceType.DOOR, device.getType());
@@ -138,6 +292,52 @@ public class DevicePoolTest {
         .subscribe();
   }
 
+  @Test
+  public void testStateFromMembers() {
+    Door first = mock(Door.class);
+    when(first.getType()).thenReturn(DeviceType.DOOR);
+    when(first.getState()).thenReturn(Single.just(DeviceState.CONNECTED));
+    Door second = mock(Door.class);
+    when(second.getType()).thenReturn(DeviceType.DOOR);
+    when(second.getState()).thenReturn(Single.just(DeviceState.CONNECTED));
+    DevicePool target = new DevicePool(Arrays.asList(
+        new ImmutablePair<>("first", first),
+        new ImmutablePair<>("second", second)),
+        DeviceType.DOOR);
+    DeviceStateListener poolListener = mock(DeviceStateListener.class);
+    target.addStateListener(poolListener);
+    ArgumentCaptor<DeviceStateListener> listenerCaptor = ArgumentCaptor.forClass(DeviceStateListener.class);
+    verify(first).addStateListener(listenerCaptor.capture());
+
+    assertEquals(DeviceState.CONNECTED, target.getState().blockingGet());
+    assertEquals(2, target.getHealth().getJsonObject(DevicePool.STATES_KEY).getInteger("connected").intValue());
+
+    listenerCaptor.getValue().onStateChanged(first, DeviceState.CONNECTED, DeviceState.ERROR);
+
+    JsonObject health = target.getHealth();
+    assertEquals(DeviceState.ERROR, target.getState().blockingGet());
+    assertEquals("error", health.getString(DevicePool.STATE_KEY));
+    assertEquals(1, health.getJsonObject(DevicePool.STATES_KEY).getInteger("connected").intValue());
+    assertEquals(1, health.getJsonObject(DevicePool.STATES_KEY).getInteger("error").intValue());
+    assertEquals(2, health.getInteger(DevicePool.TOTAL_KEY).intValue());
+    verify(poolListener).onStateChanged(target, DeviceState.CONNECTED, DeviceState.ERROR);
+  }
+
+  @Test
+  public void testRelease() {
+    Door first = mock(Door.class);
+    when(first.getType()).thenReturn(DeviceType.DOOR);
+    when(first.getState()).thenReturn(Single.just(DeviceState.CONNECTED));
+    DevicePool target = new DevicePool(Collections.singletonList(new ImmutablePair<>("first", first)), DeviceType.DOOR);
+    ArgumentCaptor<DeviceStateListener> listenerCaptor = ArgumentCaptor.forClass(DeviceStateListener.class);
+    verify(first).addStateListener(listenerCaptor.capture());
+
+    target.release();
+
+    verify(first).removeStateListener(listenerCaptor.getValue());
+    assertEquals(0, target.getHealth().getInteger(DevicePool.TOTAL_KEY).intValue());
+  }
+
   @Test(timeout = 60000)
   public void testPowerOff(TestContext context) {
     final Async async = context.async();
@@ -376,6 +576,29 @@ public class DevicePoolTest {
         .subscribe();
   }
 
+  @Test(timeout = 60000)
+  public void testUpdateAddDeviceDoesNotWaitForConnect(TestContext context) {
+    final Async async = context.async();
+
+    // The device never answers the connect
+    Device door = new Door(BASE_OBJECT) {
+      @Override
+      public Single<JsonObject> connect() {
+        return Single.never();
+      }
+    };
+
+    Storages.DEVICE_STORAGE.addDevice(door)
+        .flatMap(response -> device.update(new JsonObject()
+            .put(DevicePool.ADD_KEY, new JsonArray(Collections.singletonList(response.getString(ID))))))
+        .flatMapCompletable(response -> Completable.fromAction(() -> {
+          context.assertTrue(isInternalStatusOk(response));
+          context.assertEquals(3, response.getJsonArray("devices").size());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
   @Test(timeout = 60000)
   public void testUpdateRemoveDevice(TestContext context) {
     final Async async = context.async();
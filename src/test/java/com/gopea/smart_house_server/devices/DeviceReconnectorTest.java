@@ -0,0 +1,96 @@
+package com.gopea.smart_house_server.devices;
+
+import com.gopea.smart_house_server.common.InternalStatus;
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.devices.DeviceReconnector.CONNECTED_KEY;
+import static com.gopea.smart_house_server.devices.DeviceReconnector.FAILED_KEY;
+import static com.gopea.smart_house_server.devices.DeviceReconnector.TOTAL_KEY;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeviceReconnectorTest {
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructorFail() {
+    new DeviceReconnector(0, 1, 1000);
+  }
+
+  @Test(timeout = 60000)
+  public void testMaxConcurrency() {
+    AtomicInteger current = new AtomicInteger();
+    AtomicInteger max = new AtomicInteger();
+    List<Pair<String, Device>> devices = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      Lamp lamp = mock(Lamp.class);
+      when(lamp.connect()).thenReturn(Single.defer(() -> {
+        max.accumulateAndGet(current.incrementAndGet(), Math::max);
+        return Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK))
+            .delay(10, TimeUnit.MILLISECONDS)
+            .doFinally(current::decrementAndGet);
+      }));
+      devices.add(new ImmutablePair<>("device-" + i, lamp));
+    }
+    DeviceReconnector target = new DeviceReconnector(4, 1, 1000);
+
+    target.reconnect(devices).blockingAwait();
+
+    assertTrue(max.get() <= 4);
+    JsonObject progress = target.getProgress();
+    assertEquals(50, progress.getInteger(TOTAL_KEY).intValue());
+    assertEquals(50, progress.getInteger(CONNECTED_KEY).intValue());
+    assertEquals(0, progress.getInteger(FAILED_KEY).intValue());
+  }
+
+  @Test(timeout = 60000)
+  public void testRateLimit() {
+    List<Pair<String, Device>> devices = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      Lamp lamp = mock(Lamp.class);
+      when(lamp.connect()).thenReturn(Single.just(new JsonObject().put(INTERNAL_STATUS_KEY, InternalStatus.OK)));
+      devices.add(new ImmutablePair<>("device-" + i, lamp));
+    }
+    DeviceReconnector target = new DeviceReconnector(10, 20, 1000);
+
+    long start = System.currentTimeMillis();
+    target.reconnect(devices).blockingAwait();
+
+    assertTrue(System.currentTimeMillis() - start >= 9 * 20);
+  }
+
+  @Test(timeout = 60000)
+  public void testFailedAndPools() {
+    Lamp failed = mock(Lamp.class);
+    when(failed.connect()).thenReturn(Single.error(new RuntimeException("error")));
+    Lamp slow = mock(Lamp.class);
+    when(slow.connect()).thenReturn(Single.never());
+    DevicePool pool = mock(DevicePool.class);
+    List<Pair<String, Device>> devices = new ArrayList<>();
+    devices.add(new ImmutablePair<>("device-0", failed));
+    devices.add(new ImmutablePair<>("device-1", slow));
+    devices.add(new ImmutablePair<>("device-2", pool));
+    DeviceReconnector target = new DeviceReconnector(2, 1, 100);
+
+    target.reconnect(devices).blockingAwait();
+
+    verify(pool, never()).connect();
+    JsonObject progress = target.getProgress();
+    assertEquals(2, progress.getInteger(TOTAL_KEY).intValue());
+    assertEquals(0, progress.getInteger(CONNECTED_KEY).intValue());
+    assertEquals(2, progress.getInteger(FAILED_KEY).intValue());
+  }
+}
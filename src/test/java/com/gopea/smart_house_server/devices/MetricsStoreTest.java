@@ -0,0 +1,110 @@
+package com.gopea.smart_house_server.devices;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.devices.MetricsStore.TIME_KEY;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+
+public class MetricsStoreTest {
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructorFail() {
+    new MetricsStore(0);
+  }
+
+  @Test
+  public void testAdd() {
+    MetricsStore target = new MetricsStore(3);
+    target.add(1000, new JsonObject().put("value", 1));
+    target.add(2000, new JsonObject().put("value", 2));
+
+    assertEquals(2, target.size());
+    assertEquals(3, target.capacity());
+    JsonArray array = target.toJsonArray();
+    assertEquals(2, array.size());
+    assertEquals(1, array.getJsonObject(0).getInteger("value").intValue());
+    assertEquals(Instant.ofEpochMilli(2000).toString(), array.getJsonObject(1).getString(TIME_KEY));
+  }
+
+  @Test
+  public void testOverwriteOldest() {
+    MetricsStore target = new MetricsStore(100);
+    for (int i = 0; i < 250; i++) {
+      target.add(i, new JsonObject().put("value", i));
+    }
+
+    assertEquals(100, target.size());
+    JsonArray array = target.toJsonArray();
+    assertEquals(100, array.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(150 + i, array.getJsonObject(i).getInteger("value").intValue());
+    }
+  }
+
+  @Test
+  public void testStatusKeysAreHidden() {
+    MetricsStore target = new MetricsStore(1);
+    JsonObject sample = new JsonObject()
+        .put(INTERNAL_STATUS_KEY, "OK")
+        .put(EXTERNAL_STATUS_KEY, 200)
+        .put("value", 1);
+    target.add(0, sample);
+
+    JsonObject metric = target.toJsonArray().getJsonObject(0);
+    assertFalse(metric.containsKey(INTERNAL_STATUS_KEY));
+    assertFalse(metric.containsKey(EXTERNAL_STATUS_KEY));
+    assertEquals(3, sample.size());
+  }
+
+  @Test
+  public void testQueryRange() {
+    MetricsStore target = new MetricsStore(10);
+    for (int i = 0; i < 15; i++) {
+      target.add(i * 1000, new JsonObject().put("value", i));
+    }
+
+    JsonArray array = target.query(7000, 9000, 0);
+    assertEquals(3, array.size());
+    assertEquals(7, array.getJsonObject(0).getInteger("value").intValue());
+    assertEquals(9, array.getJsonObject(2).getInteger("value").intValue());
+
+    assertEquals(10, target.query(Long.MIN_VALUE, Long.MAX_VALUE, 0).size());
+    assertEquals(0, target.query(20000, 30000, 0).size());
+  }
+
+  @Test
+  public void testQueryRollup() {
+    MetricsStore target = new MetricsStore(10);
+    for (int i = 0; i < 10; i++) {
+      target.add(i * 1000, new JsonObject()
+          .put("data", new JsonObject().put("value", i).put("state", "on")));
+    }
+
+    JsonArray array = target.query(0, 9000, 5000);
+    assertEquals(2, array.size());
+    JsonObject first = array.getJsonObject(0);
+    assertEquals(5, first.getInteger(MetricsStore.COUNT_KEY).intValue());
+    assertEquals(0.0, first.getJsonObject(MetricsStore.MIN_KEY).getDouble("data.value"));
+    assertEquals(4.0, first.getJsonObject(MetricsStore.MAX_KEY).getDouble("data.value"));
+    assertEquals(2.0, first.getJsonObject(MetricsStore.AVG_KEY).getDouble("data.value"));
+    assertEquals(4, first.getJsonObject(MetricsStore.LAST_KEY).getJsonObject("data").getInteger("value").intValue());
+    assertEquals(Instant.ofEpochMilli(0).toString(), first.getString(MetricsStore.FROM_KEY));
+    assertEquals(Instant.ofEpochMilli(5000).toString(), first.getString(MetricsStore.TO_KEY));
+  }
+
+  @Test
+  public void testTimestampsAreSorted() {
+    MetricsStore target = new MetricsStore(10);
+    target.add(2000, new JsonObject().put("value", 1));
+    target.add(1000, new JsonObject().put("value", 2));
+
+    assertEquals(2, target.query(2000, 2000, 0).size());
+  }
+}
@@ -0,0 +1,97 @@
+package com.gopea.smart_house_server.devices;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class PoolMembersTest {
+
+  private static final int BENCHMARK_SIZE = 10_000;
+
+  @Test
+  public void testInsertionOrder() {
+    Device device = mock(Device.class);
+    PoolMembers target = new PoolMembers(Arrays.asList(
+        new ImmutablePair<>("first", device),
+        new ImmutablePair<>("second", device)));
+
+    assertTrue(target.add("third", device));
+    assertFalse(target.add("first", device));
+    assertTrue(target.remove("second"));
+    assertTrue(target.add("second", device));
+
+    assertEquals(Arrays.asList("first", "third", "second"), ids(target));
+    assertEquals(3, target.size());
+  }
+
+  @Test
+  public void testContainsAndRemove() {
+    Device device = mock(Device.class);
+    PoolMembers target = new PoolMembers(new ArrayList<>());
+    target.add("first", device);
+
+    assertTrue(target.contains("first"));
+    assertEquals(device, target.get("first"));
+    assertTrue(target.remove("first"));
+    assertFalse(target.remove("first"));
+    assertFalse(target.contains("first"));
+    assertNull(target.get("first"));
+  }
+
+  @Test
+  public void testChangeWhileIterating() {
+    Device device = mock(Device.class);
+    PoolMembers target = new PoolMembers(new ArrayList<>());
+    target.add("first", device);
+    target.add("second", device);
+
+    Iterator<Pair<String, Device>> iterator = target.iterator();
+    target.remove("first");
+    target.add("third", device);
+
+    assertEquals("first", iterator.next().getLeft());
+    assertEquals("second", iterator.next().getLeft());
+    assertFalse(iterator.hasNext());
+    assertEquals(Arrays.asList("second", "third"), ids(target));
+  }
+
+  @Test(timeout = 60_000L)
+  public void testBenchmarkAddRemove() {
+    Device device = mock(Device.class);
+    PoolMembers target = new PoolMembers(new ArrayList<>());
+
+    long start = System.nanoTime();
+    for (int i = 0; i < BENCHMARK_SIZE; i++) {
+      target.add("device-" + i, device);
+    }
+    assertEquals(BENCHMARK_SIZE, target.snapshot().size());
+    for (int i = 0; i < BENCHMARK_SIZE; i++) {
+      assertTrue(target.contains("device-" + i));
+      target.remove("device-" + i);
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertEquals(0, target.size());
+    assertTrue(String.format("Add and remove of %d members took %d ms", BENCHMARK_SIZE, millis), millis < 1_000);
+  }
+
+  private static List<String> ids(PoolMembers members) {
+    List<String> ids = new ArrayList<>();
+    for (Pair<String, Device> pair : members) {
+      ids.add(pair.getLeft());
+    }
+    return ids;
+  }
+}
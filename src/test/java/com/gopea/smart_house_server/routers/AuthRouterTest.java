@@ -1,5 +1,7 @@
 package com.gopea.smart_house_server.routers;
 
+import com.gopea.smart_house_server.common.AuthCache;
+import com.gopea.smart_house_server.common.TokenService;
 import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.data_base.Storages;
 import com.gopea.smart_house_server.routers.users.User;
@@ -24,6 +26,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 import static com.gopea.smart_house_server.common.Helpers.*;
@@ -32,6 +35,7 @@ import static com.gopea.smart_house_server.data_base.FileUserStorage.USERS_KEY;
 import static com.gopea.smart_house_server.routers.AuthRouter.AUTH_HEADER;
 import static com.gopea.smart_house_server.routers.Common.createContext;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -48,6 +52,7 @@ public class AuthRouterTest {
     vertx = Vertx.vertx();
     vertx.fileSystem()
         .rxWriteFile(PASSWORDS_FILE, Buffer.newInstance(new JsonObject().put(USERS_KEY, new JsonObject()).toBuffer()))
+        .andThen(Storages.USER_STORAGE.reload())
         .andThen(Completable.fromAction(async::complete))
         .subscribe();
   }
@@ -179,4 +184,117 @@ public class AuthRouterTest {
         .subscribe();
   }
 
+  @Test(timeout = 60_000L)
+  public void testCacheInvalidatedOnDelete(TestContext context) {
+    final Async async = context.async();
+
+    AuthCache cache = new AuthCache();
+    AuthRouter target = new AuthRouter(cache);
+
+    User user = new User("test", UserType.ADMIN, "password");
+    String header = String.format("Basic %s", Base64.getEncoder().encodeToString("test:password".getBytes()));
+    RoutingContext first = createAuthContext(header);
+    RoutingContext second = createAuthContext(header);
+    RoutingContext third = createAuthContext(header);
+
+    Storages.USER_STORAGE.addUser(user)
+        .flatMapCompletable(ign -> target.handleRequest(first))
+        .andThen(target.handleRequest(second))
+        .andThen(Completable.fromAction(() -> {
+          verify(second.request().headers()).add(USERNAME_HEADER, user.getUsername());
+          assertEquals(1, cache.size());
+        }))
+        .andThen(Storages.USER_STORAGE.deleteUser(user))
+        .flatMapCompletable(ign -> {
+          assertEquals(0, cache.size());
+          return target.handleRequest(third);
+        })
+        .andThen(Completable.fromAction(() -> {
+          verify(third).fail(StatusCode.UNAUTHORISED.getStatusCode());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testCacheInvalidatedOnPasswordUpdate(TestContext context) {
+    final Async async = context.async();
+
+    AuthRouter target = new AuthRouter();
+
+    User user = new User("test", UserType.ADMIN, "password");
+    String header = String.format("Basic %s", Base64.getEncoder().encodeToString("test:password".getBytes()));
+    RoutingContext first = createAuthContext(header);
+    RoutingContext second = createAuthContext(header);
+
+    Storages.USER_STORAGE.addUser(user)
+        .flatMapCompletable(ign -> target.handleRequest(first))
+        .andThen(Storages.USER_STORAGE.updatePassword(user, encryptPassword("new_password")))
+        .flatMapCompletable(ign -> target.handleRequest(second))
+        .andThen(Completable.fromAction(() -> {
+          verify(first.request().headers()).add(USERNAME_HEADER, user.getUsername());
+          verify(second).fail(StatusCode.UNAUTHORISED.getStatusCode());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testLegacyPasswordUpgraded(TestContext context) {
+    final Async async = context.async();
+
+    AuthRouter target = new AuthRouter(new AuthCache(1, 1));
+
+    User user = new User("test", UserType.ADMIN, "password");
+    String header = String.format("Basic %s", Base64.getEncoder().encodeToString("test:password".getBytes()));
+    RoutingContext first = createAuthContext(header);
+    RoutingContext second = createAuthContext(header);
+
+    Storages.USER_STORAGE.addUser(user)
+        .flatMapCompletable(ign -> target.handleRequest(first))
+        // The password is upgraded in the background, after the request is let through
+        .andThen(Storages.USER_STORAGE.getUser("test")
+            .filter(upgraded -> !Storages.PASSWORD_HASHER.needsUpgrade(upgraded.getPassword()))
+            .repeatWhen(done -> done.delay(10, TimeUnit.MILLISECONDS))
+            .firstOrError())
+        .flatMapCompletable(upgraded -> {
+          assertFalse(Arrays.equals(user.getPassword(), upgraded.getPassword()));
+          return target.handleRequest(second);
+        })
+        .andThen(Completable.fromAction(() -> {
+          verify(first.request().headers()).add(USERNAME_HEADER, user.getUsername());
+          verify(second.request().headers()).add(USERNAME_HEADER, user.getUsername());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testBearerToken(TestContext context) {
+    final Async async = context.async();
+
+    AuthRouter target = new AuthRouter();
+    String token = TokenService.TOKEN_SERVICE.issue("token_user", UserType.USER);
+    RoutingContext success = createAuthContext(AuthRouter.BEARER_PREFIX + token);
+    RoutingContext fail = createAuthContext(AuthRouter.BEARER_PREFIX + token + "a");
+
+    target.handleRequest(success)
+        .andThen(target.handleRequest(fail))
+        .andThen(Completable.fromAction(() -> {
+          verify(success.request().headers()).add(USERNAME_HEADER, "token_user");
+          verify(success.request().headers()).add(USER_TYPE_HEADER, UserType.USER.toString().toLowerCase());
+          verify(fail).fail(StatusCode.UNAUTHORISED.getStatusCode());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  private static RoutingContext createAuthContext(String header) {
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getHeader(AUTH_HEADER)).thenReturn(header);
+    MultiMap map = mock(MultiMap.class);
+    when(map.add(any(String.class), any(String.class))).thenReturn(map);
+    when(routingContext.request().headers()).thenReturn(map);
+    return routingContext;
+  }
 }
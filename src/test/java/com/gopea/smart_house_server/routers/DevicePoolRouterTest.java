@@ -2,6 +2,7 @@ package com.gopea.smart_house_server.routers;
 
 import com.gopea.smart_house_server.configs.StatusCode;
 import com.gopea.smart_house_server.data_base.Storages;
+import com.gopea.smart_house_server.devices.DevicePool;
 import com.gopea.smart_house_server.devices.DeviceType;
 import com.gopea.smart_house_server.devices.Lamp;
 import com.gopea.smart_house_server.routers.users.UserType;
@@ -160,6 +161,26 @@ public class DevicePoolRouterTest {
                 .subscribe();
     }
 
+    @Test(timeout = 60_000L)
+    public void testPostWithInvalidMaxConcurrency(TestContext context) {
+        RoutingContext routingContext = createContext();
+
+        final Async async = context.async();
+        when(routingContext.getBodyAsJson()).thenReturn(new JsonObject()
+                .put(DEVICE_TYPE_KEY, DeviceType.DOOR)
+                .put(DevicePool.MAX_CONCURRENCY_KEY, 0));
+
+        DevicePoolRouter target = new DevicePoolRouter();
+
+        target.handlePostRequest(routingContext)
+                .andThen(Completable.fromAction(() -> {
+                    verify(routingContext.response()).setStatusCode(StatusCode.BAD_REQUEST.getStatusCode());
+                    verify(routingContext.response()).end(any(Buffer.class));
+                    async.complete();
+                }))
+                .subscribe();
+    }
+
     @Test(timeout = 60_000L)
     public void testPostSuccess(TestContext context) {
         RoutingContext routingContext = createContext();
@@ -1,15 +1,24 @@
 package com.gopea.smart_house_server.routers;
 
 import com.gopea.smart_house_server.configs.StatusCode;
+import com.gopea.smart_house_server.connectors.BaseTestDeviceConnector;
 import com.gopea.smart_house_server.connectors.Connectible;
+import com.gopea.smart_house_server.connectors.Connector;
+import com.gopea.smart_house_server.connectors.RetryPolicy;
 import com.gopea.smart_house_server.data_base.Storages;
 import com.gopea.smart_house_server.devices.Device;
+import com.gopea.smart_house_server.devices.DevicePool;
+import com.gopea.smart_house_server.devices.DeviceReconnector;
+import com.gopea.smart_house_server.devices.DeviceShadow;
+import com.gopea.smart_house_server.devices.DeviceState;
 import com.gopea.smart_house_server.devices.DeviceType;
 import com.gopea.smart_house_server.devices.Door;
 import com.gopea.smart_house_server.devices.Lamp;
+import com.gopea.smart_house_server.examples.StandardDeviceExample;
 import com.gopea.smart_house_server.routers.users.UserType;
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
@@ -17,9 +26,11 @@ import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import io.vertx.reactivex.core.Vertx;
 import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.core.http.HttpServerResponse;
 import io.vertx.reactivex.ext.web.Route;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -27,13 +38,17 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static com.gopea.smart_house_server.TestHelpers.deleteDeviceFiles;
+import static com.gopea.smart_house_server.common.Helpers.EXTERNAL_STATUS_KEY;
+import static com.gopea.smart_house_server.common.Helpers.INTERNAL_STATUS_KEY;
 import static com.gopea.smart_house_server.common.Helpers.USER_TYPE_HEADER;
 import static com.gopea.smart_house_server.connectors.Connectors.COMMAND_ACTION_KEY;
 import static com.gopea.smart_house_server.data_base.Storages.ID;
 import static com.gopea.smart_house_server.devices.BaseDevice.HOST_KEY;
+import static com.gopea.smart_house_server.devices.BaseDevice.STATUS_KEY;
 import static com.gopea.smart_house_server.devices.BaseDevice.UPDATE_TIME_KEY;
 import static com.gopea.smart_house_server.devices.Devices.DEVICE_PROPERTIES_KEY;
 import static com.gopea.smart_house_server.devices.Devices.DEVICE_TYPE_KEY;
@@ -41,7 +56,11 @@ import static com.gopea.smart_house_server.examples.StandardDeviceExample.STATE_
 import static com.gopea.smart_house_server.routers.Common.createContext;
 import static junit.framework.TestCase.assertEquals;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 @RunWith(VertxUnitRunner.class)
@@ -79,7 +98,25 @@ public class DeviceRouterTest {
     Router target = new DeviceRouter().loadRouter(Vertx.vertx());
 
     List<Route> list = target.getRoutes();
-    assertEquals(11, list.size());
+    assertEquals(12, list.size());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testReconnectProgress(TestContext context) {
+    RoutingContext routingContext = createContext();
+
+    final Async async = context.async();
+
+    DeviceRouter target = new DeviceRouter();
+    target.handleReconnectProgress(routingContext)
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          ArgumentCaptor<Buffer> capture = ArgumentCaptor.forClass(Buffer.class);
+          verify(routingContext.response()).end(capture.capture());
+          context.assertTrue(capture.getValue().toJsonObject().containsKey(DeviceReconnector.TOTAL_KEY));
+          async.complete();
+        }))
+        .subscribe();
   }
 
   @Test(timeout = 60_000L)
@@ -545,6 +582,84 @@ public class DeviceRouterTest {
         .subscribe();
   }
 
+  @Test(timeout = 60_000L)
+  public void testHandlePowerOffPoolStream(TestContext context) {
+    RoutingContext routingContext = createContext();
+
+    final Async async = context.async();
+
+    when(routingContext.request().getHeader(USER_TYPE_HEADER)).thenReturn(UserType.ADMIN.toString());
+    when(routingContext.request().getParam(DeviceRouter.STREAM_PARAM)).thenReturn("true");
+
+    DeviceRouter target = new DeviceRouter();
+
+    Device pool = new DevicePool(Arrays.asList(
+        new ImmutablePair<>("first", new Lamp(BASE_OBJECT)),
+        new ImmutablePair<>("second", new Lamp(BASE_OBJECT))),
+        DeviceType.LAMP);
+
+    Storages.DEVICE_STORAGE.addDevice(pool)
+        .flatMapCompletable(response -> {
+          when(routingContext.request().getParam(ID)).thenReturn(response.getString(ID));
+          return target.handlePowerOff(routingContext);
+        })
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          verify(routingContext.response()).setChunked(true);
+          ArgumentCaptor<Buffer> linesCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(routingContext.response(), times(2)).write(linesCapture.capture());
+          for (Buffer line : linesCapture.getAllValues()) {
+            JsonObject result = new JsonObject(line.toString().trim());
+            context.assertNotNull(result.getString(ID));
+            context.assertNull(result.getValue(INTERNAL_STATUS_KEY));
+            context.assertNull(result.getValue(EXTERNAL_STATUS_KEY));
+          }
+          ArgumentCaptor<Buffer> endCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(routingContext.response()).end(endCapture.capture());
+          JsonObject summary = new JsonObject(endCapture.getValue().toString().trim());
+          context.assertTrue(summary.getBoolean(DevicePool.SUMMARY_KEY));
+          context.assertEquals(2, summary.getInteger(DevicePool.TOTAL_KEY));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandlePowerOffPoolStreamClosed(TestContext context) {
+    RoutingContext routingContext = createContext();
+    HttpServerResponse response = routingContext.response();
+
+    final Async async = context.async();
+
+    when(routingContext.request().getHeader(USER_TYPE_HEADER)).thenReturn(UserType.ADMIN.toString());
+    when(routingContext.request().getParam(DeviceRouter.STREAM_PARAM)).thenReturn("true");
+    // The client is gone while the write queue is full, so it's never drained
+    when(response.writeQueueFull()).thenReturn(true);
+    doAnswer(invocation -> {
+      invocation.<Handler<Void>>getArgument(0).handle(null);
+      return response;
+    }).when(response).closeHandler(any());
+
+    DeviceRouter target = new DeviceRouter();
+
+    Device pool = new DevicePool(Arrays.asList(
+        new ImmutablePair<>("first", new Lamp(BASE_OBJECT)),
+        new ImmutablePair<>("second", new Lamp(BASE_OBJECT))),
+        DeviceType.LAMP);
+
+    Storages.DEVICE_STORAGE.addDevice(pool)
+        .flatMapCompletable(added -> {
+          when(routingContext.request().getParam(ID)).thenReturn(added.getString(ID));
+          return target.handlePowerOff(routingContext);
+        })
+        .andThen(Completable.fromAction(() -> {
+          verify(response).close();
+          verify(response, never()).end(any(Buffer.class));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
   @Test(timeout = 60_000L)
   public void testHandlePowerOffUnavailable(TestContext context) {
     RoutingContext routingContext = createContext();
@@ -570,6 +685,42 @@ public class DeviceRouterTest {
         .subscribe();
   }
 
+  @Test(timeout = 60_000L)
+  public void testHandlePowerOffCircuitOpen(TestContext context) {
+    RoutingContext routingContext = createContext();
+
+    final Async async = context.async();
+
+    when(routingContext.request().getHeader(USER_TYPE_HEADER)).thenReturn(UserType.ADMIN.toString());
+    StandardDeviceExample example = mock(StandardDeviceExample.class);
+    when(example.getResponse(any()))
+        .thenReturn(new JsonObject().put(COMMAND_ACTION_KEY, BaseTestDeviceConnector.ConnectionState.CONNECTED))
+        .thenThrow(new IllegalStateException("failed"));
+    Lamp lamp = new Lamp(BASE_OBJECT) {
+      @Override
+      protected Connector getConnector(String host, int port) {
+        return new BaseTestDeviceConnector(host, port, example, new RetryPolicy(0, 0, 0, 1, 1, 60_000));
+      }
+    };
+
+    DeviceRouter target = new DeviceRouter();
+
+    lamp.connect()
+        .flatMap(ign -> lamp.getData())
+        .flatMap(ign -> Storages.DEVICE_STORAGE.addDevice(lamp))
+        .flatMapCompletable(response -> {
+          when(routingContext.request().getParam(ID)).thenReturn(response.getString(ID));
+          return target.handlePowerOff(routingContext);
+        })
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.UNAVAILABLE.getStatusCode());
+          // The device isn't called while the breaker is open
+          verify(example, times(2)).getResponse(any());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
 
   @Test(timeout = 60_000L)
   public void testHandleRebootInvalidAccessRights(TestContext context) {
@@ -931,6 +1082,150 @@ public class DeviceRouterTest {
         .subscribe();
   }
 
+  @Test(timeout = 60_000L)
+  public void testHandleGetWithIdShadow(TestContext context) {
+    RoutingContext live = createContext();
+    RoutingContext shadow = createContext();
+    RoutingContext fresh = createContext();
+
+    final Async async = context.async();
+
+    DeviceRouter target = new DeviceRouter();
+
+    // The shadow is used by default only for a polled device
+    Device lamp = new Lamp(BASE_OBJECT.copy().put(UPDATE_TIME_KEY, 60));
+
+    Storages.DEVICE_STORAGE.addDevice(lamp)
+        .flatMapCompletable(response -> {
+          for (RoutingContext routingContext : Arrays.asList(live, shadow, fresh)) {
+            when(routingContext.request().getParam(ID)).thenReturn(response.getString(ID));
+          }
+          when(fresh.request().getParam(DeviceRouter.FRESH_PARAM)).thenReturn("true");
+          return lamp.connect()
+              .ignoreElement()
+              .andThen(target.handleGetWithId(live))
+              .andThen(target.handleGetWithId(shadow))
+              .andThen(target.handleGetWithId(fresh));
+        })
+        .andThen(Completable.fromAction(() -> {
+          for (RoutingContext routingContext : Arrays.asList(live, shadow, fresh)) {
+            verify(routingContext.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          }
+          ArgumentCaptor<Buffer> liveCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(live.response()).end(liveCapture.capture());
+          context.assertFalse(liveCapture.getValue().toJsonObject().containsKey(DeviceShadow.UPDATED_AT_KEY));
+          ArgumentCaptor<Buffer> shadowCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(shadow.response()).end(shadowCapture.capture());
+          context.assertTrue(shadowCapture.getValue().toJsonObject().containsKey(DeviceShadow.UPDATED_AT_KEY));
+          ArgumentCaptor<Buffer> freshCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(fresh.response()).end(freshCapture.capture());
+          context.assertFalse(freshCapture.getValue().toJsonObject().containsKey(DeviceShadow.UPDATED_AT_KEY));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleGetWithIdAfterExecute(TestContext context) {
+    RoutingContext before = createContext();
+    RoutingContext execute = createContext();
+    RoutingContext after = createContext();
+
+    final Async async = context.async();
+
+    when(execute.getBodyAsJson()).thenReturn(new JsonObject()
+        .put(STATE_KEY, "on"));
+
+    DeviceRouter target = new DeviceRouter();
+
+    Device lamp = new Lamp(BASE_OBJECT.copy().put(UPDATE_TIME_KEY, 60));
+
+    Storages.DEVICE_STORAGE.addDevice(lamp)
+        .flatMapCompletable(response -> {
+          for (RoutingContext routingContext : Arrays.asList(before, execute, after)) {
+            when(routingContext.request().getParam(ID)).thenReturn(response.getString(ID));
+          }
+          return lamp.connect()
+              .ignoreElement()
+              .andThen(target.handleGetWithId(before))
+              .andThen(target.handleExecute(execute))
+              .andThen(target.handleGetWithId(after));
+        })
+        .andThen(Completable.fromAction(() -> {
+          ArgumentCaptor<Buffer> beforeCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(before.response()).end(beforeCapture.capture());
+          context.assertEquals("off", beforeCapture.getValue().toJsonObject()
+              .getJsonObject(StandardDeviceExample.DATA_KEY).getString(STATE_KEY));
+          verify(execute.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          // The command cleared the shadow, so the old state isn't served
+          ArgumentCaptor<Buffer> afterCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(after.response()).end(afterCapture.capture());
+          context.assertEquals("on", afterCapture.getValue().toJsonObject()
+              .getJsonObject(StandardDeviceExample.DATA_KEY).getString(STATE_KEY));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleGetWithIdPoolHealth(TestContext context) {
+    RoutingContext data = createContext();
+    RoutingContext health = createContext();
+
+    final Async async = context.async();
+
+    when(health.request().getParam(DeviceRouter.HEALTH_PARAM)).thenReturn("true");
+
+    DeviceRouter target = new DeviceRouter();
+
+    Device pool = new DevicePool(Arrays.asList(
+        new ImmutablePair<>("first", new Lamp(BASE_OBJECT)),
+        new ImmutablePair<>("second", new Lamp(BASE_OBJECT))),
+        DeviceType.LAMP);
+
+    Storages.DEVICE_STORAGE.addDevice(pool)
+        .flatMapCompletable(response -> {
+          for (RoutingContext routingContext : Arrays.asList(data, health)) {
+            when(routingContext.request().getParam(ID)).thenReturn(response.getString(ID));
+          }
+          return target.handleGetWithId(data)
+              .andThen(target.handleGetWithId(health));
+        })
+        .andThen(Completable.fromAction(() -> {
+          // The health is only sent when it's asked for
+          ArgumentCaptor<Buffer> dataCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(data.response()).end(dataCapture.capture());
+          context.assertFalse(dataCapture.getValue().toJsonObject().containsKey(DevicePool.STATES_KEY));
+          verify(health.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          ArgumentCaptor<Buffer> healthCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(health.response()).end(healthCapture.capture());
+          JsonObject result = healthCapture.getValue().toJsonObject();
+          context.assertEquals(2, result.getInteger(DevicePool.TOTAL_KEY));
+          context.assertTrue(result.containsKey(DevicePool.STATES_KEY));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleGetWithIdBadMaxAge(TestContext context) {
+    RoutingContext routingContext = createContext();
+
+    final Async async = context.async();
+
+    when(routingContext.request().getParam(ID)).thenReturn("hjsshdj");
+    when(routingContext.request().getParam(DeviceRouter.MAX_AGE_PARAM)).thenReturn("-1");
+
+    DeviceRouter target = new DeviceRouter();
+    target.handleGetWithId(routingContext)
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.BAD_REQUEST.getStatusCode());
+          verify(routingContext.response()).end(any(Buffer.class));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
   @Test(timeout = 60_000L)
   public void testHandleMetricsBadId(TestContext context) {
     RoutingContext routingContext = createContext();
@@ -994,6 +1289,114 @@ public class DeviceRouterTest {
         .subscribe();
   }
 
+  @Test(timeout = 60_000L)
+  public void testHandleMetricsInvalidRange(TestContext context) {
+    RoutingContext routingContext = createContext();
+
+    final Async async = context.async();
+
+    when(routingContext.request().getParam(ID)).thenReturn("device-pppp");
+    when(routingContext.request().getParam(DeviceRouter.FROM_PARAM)).thenReturn("yesterday");
+
+    DeviceRouter target = new DeviceRouter();
+    target.handleMetrics(routingContext)
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.BAD_REQUEST.getStatusCode());
+          verify(routingContext.response()).end(any(Buffer.class));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleMetricsInvalidStep(TestContext context) {
+    RoutingContext routingContext = createContext();
+
+    final Async async = context.async();
+
+    when(routingContext.request().getParam(ID)).thenReturn("device-pppp");
+    when(routingContext.request().getParam(DeviceRouter.STEP_PARAM)).thenReturn("0");
+
+    DeviceRouter target = new DeviceRouter();
+    target.handleMetrics(routingContext)
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.BAD_REQUEST.getStatusCode());
+          verify(routingContext.response()).end(any(Buffer.class));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleMetricsStepOverflow(TestContext context) {
+    RoutingContext routingContext = createContext();
+
+    final Async async = context.async();
+
+    when(routingContext.request().getParam(ID)).thenReturn("device-pppp");
+    when(routingContext.request().getParam(DeviceRouter.STEP_PARAM)).thenReturn(String.valueOf(Long.MAX_VALUE / 10));
+
+    DeviceRouter target = new DeviceRouter();
+    target.handleMetrics(routingContext)
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.BAD_REQUEST.getStatusCode());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleMetricsTimeOverflow(TestContext context) {
+    RoutingContext routingContext = createContext();
+
+    final Async async = context.async();
+
+    when(routingContext.request().getParam(ID)).thenReturn("device-pppp");
+    when(routingContext.request().getParam(DeviceRouter.TO_PARAM)).thenReturn("99999999999999999999999");
+
+    DeviceRouter target = new DeviceRouter();
+    target.handleMetrics(routingContext)
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.BAD_REQUEST.getStatusCode());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleMetricsWithStep(TestContext context) {
+    RoutingContext routingContext = createContext();
+
+    final Async async = context.async();
+
+    DeviceRouter target = new DeviceRouter();
+
+    Device device = new Lamp(BASE_OBJECT);
+
+    when(routingContext.request().getParam(DeviceRouter.FROM_PARAM)).thenReturn("0");
+    when(routingContext.request().getParam(DeviceRouter.STEP_PARAM)).thenReturn("3600");
+
+    Storages.DEVICE_STORAGE.addDevice(device)
+        .flatMapCompletable(response -> {
+          when(routingContext.request().getParam(ID)).thenReturn(response.getString(ID));
+          return device.connect()
+              .flatMap(ign -> device.getData())
+              .flatMap(ign -> device.getData())
+              .ignoreElement()
+              .andThen(target.handleMetrics(routingContext));
+        })
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          ArgumentCaptor<Buffer> valueCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(routingContext.response()).end(valueCapture.capture());
+          JsonArray array = valueCapture.getValue().toJsonArray();
+          context.assertTrue(array.size() >= 1);
+          context.assertTrue(array.getJsonObject(0).containsKey("last"));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
   @Test(timeout = 60_000L)
   public void testHandleGetInvalidDeviceType(TestContext context) {
     final Async async = context.async();
@@ -1013,6 +1416,147 @@ public class DeviceRouterTest {
         .subscribe();
   }
 
+  @Test(timeout = 60_000L)
+  public void testHandleGetInvalidStatus(TestContext context) {
+    final Async async = context.async();
+
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getParam(ID)).thenReturn(null);
+    when(routingContext.request().getParam(STATUS_KEY)).thenReturn("InvalidStatus");
+
+    DeviceRouter target = new DeviceRouter();
+
+    target.handleGet(routingContext)
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          ArgumentCaptor<Buffer> valueCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(routingContext.response()).end(valueCapture.capture());
+          context.assertTrue(valueCapture.getValue().toJsonArray().isEmpty());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleGetWithStatus(TestContext context) {
+    final Async async = context.async();
+
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getParam(ID)).thenReturn(null);
+    when(routingContext.request().getParam(DEVICE_TYPE_KEY)).thenReturn(DeviceType.LAMP.toString());
+    when(routingContext.request().getParam(STATUS_KEY)).thenReturn(DeviceState.CONNECTED.toString());
+
+    DeviceRouter target = new DeviceRouter();
+    Device lamp = new Lamp(BASE_OBJECT);
+    Storages.DEVICE_STORAGE.addDevice(lamp)
+        .flatMap(ign -> Storages.DEVICE_STORAGE.addDevice(new Lamp(BASE_OBJECT)))
+        .flatMap(ign -> lamp.connect())
+        .ignoreElement()
+        .andThen(target.handleGet(routingContext))
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          ArgumentCaptor<Buffer> valueCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(routingContext.response()).end(valueCapture.capture());
+          context.assertEquals(1, valueCapture.getValue().toJsonArray().size());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleGetInvalidLimit(TestContext context) {
+    final Async async = context.async();
+
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getParam(DeviceRouter.LIMIT_PARAM)).thenReturn("-1");
+
+    DeviceRouter target = new DeviceRouter();
+
+    target.handleGet(routingContext)
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.BAD_REQUEST.getStatusCode());
+          verify(routingContext.response()).end(any(Buffer.class));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleGetWithZeroLimit(TestContext context) {
+    final Async async = context.async();
+
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getParam(DeviceRouter.LIMIT_PARAM)).thenReturn("0");
+
+    DeviceRouter target = new DeviceRouter();
+
+    target.handleGet(routingContext)
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.BAD_REQUEST.getStatusCode());
+          verify(routingContext.response(), never()).putHeader(eq(DeviceRouter.NEXT_CURSOR_HEADER), anyString());
+          verify(routingContext.response()).end(any(Buffer.class));
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleGetWithLimit(TestContext context) {
+    final Async async = context.async();
+
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getParam(DeviceRouter.LIMIT_PARAM)).thenReturn("2");
+
+    DeviceRouter target = new DeviceRouter();
+    Storages.DEVICE_STORAGE.addDevice(new Lamp(BASE_OBJECT))
+        .flatMap(ign -> Storages.DEVICE_STORAGE.addDevice(new Lamp(BASE_OBJECT)))
+        .flatMap(ign -> Storages.DEVICE_STORAGE.addDevice(new Door(BASE_OBJECT)))
+        .ignoreElement()
+        .andThen(target.handleGet(routingContext))
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          ArgumentCaptor<String> cursorCapture = ArgumentCaptor.forClass(String.class);
+          verify(routingContext.response()).putHeader(eq(DeviceRouter.NEXT_CURSOR_HEADER), cursorCapture.capture());
+          ArgumentCaptor<Buffer> valueCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(routingContext.response()).end(valueCapture.capture());
+          JsonArray array = valueCapture.getValue().toJsonArray();
+          context.assertEquals(2, array.size());
+          context.assertEquals(array.getJsonObject(1).getString(ID), cursorCapture.getValue());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
+  @Test(timeout = 60_000L)
+  public void testHandleGetStream(TestContext context) {
+    final Async async = context.async();
+
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getParam(DeviceRouter.STREAM_PARAM)).thenReturn("true");
+
+    DeviceRouter target = new DeviceRouter();
+    Storages.DEVICE_STORAGE.addDevice(new Lamp(BASE_OBJECT))
+        .flatMap(ign -> Storages.DEVICE_STORAGE.addDevice(new Door(BASE_OBJECT)))
+        .ignoreElement()
+        .andThen(target.handleGet(routingContext))
+        .andThen(Completable.fromAction(() -> {
+          verify(routingContext.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+          verify(routingContext.response()).setChunked(true);
+          ArgumentCaptor<Buffer> chunksCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(routingContext.response(), times(3)).write(chunksCapture.capture());
+          ArgumentCaptor<Buffer> endCapture = ArgumentCaptor.forClass(Buffer.class);
+          verify(routingContext.response()).end(endCapture.capture());
+          Buffer body = Buffer.buffer();
+          for (Buffer chunk : chunksCapture.getAllValues()) {
+            body.appendBuffer(chunk);
+          }
+          body.appendBuffer(endCapture.getValue());
+          context.assertEquals(2, body.toJsonArray().size());
+          async.complete();
+        }))
+        .subscribe();
+  }
+
   @Test(timeout = 60_000L)
   public void testHandleGetWithDeviceType(TestContext context) {
     final Async async = context.async();
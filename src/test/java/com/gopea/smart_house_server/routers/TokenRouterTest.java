@@ -0,0 +1,99 @@
+package com.gopea.smart_house_server.routers;
+
+import com.gopea.smart_house_server.common.TokenService;
+import com.gopea.smart_house_server.configs.StatusCode;
+import com.gopea.smart_house_server.routers.users.UserType;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.ext.web.Route;
+import io.vertx.reactivex.ext.web.Router;
+import io.vertx.reactivex.ext.web.RoutingContext;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+import static com.gopea.smart_house_server.common.Helpers.USERNAME_HEADER;
+import static com.gopea.smart_house_server.common.Helpers.USER_TYPE_HEADER;
+import static com.gopea.smart_house_server.routers.AuthRouter.AUTH_HEADER;
+import static com.gopea.smart_house_server.routers.AuthRouter.BASIC_PREFIX;
+import static com.gopea.smart_house_server.routers.AuthRouter.BEARER_PREFIX;
+import static com.gopea.smart_house_server.routers.Common.createContext;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(VertxUnitRunner.class)
+public class TokenRouterTest {
+
+  @Test(timeout = 60_000L)
+  public void testLoadRouter() {
+    Router target = new TokenRouter(new TokenService("secret".getBytes(), 1000)).loadRouter(Vertx.vertx());
+
+    List<Route> list = target.getRoutes();
+    assertEquals(2, list.size());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testLogin() {
+    TokenService tokenService = new TokenService("secret".getBytes(), 10_000);
+    TokenRouter target = new TokenRouter(tokenService);
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getHeader(AUTH_HEADER)).thenReturn(BASIC_PREFIX + "dXNlcjpwYXNz");
+    when(routingContext.request().getHeader(USERNAME_HEADER)).thenReturn("user");
+    when(routingContext.request().getHeader(USER_TYPE_HEADER)).thenReturn("admin");
+
+    target.handleLogin(routingContext).blockingAwait();
+
+    verify(routingContext.response()).setStatusCode(StatusCode.SUCCESS.getStatusCode());
+    ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+    verify(routingContext.response()).end(captor.capture());
+    JsonObject body = captor.getValue().toJsonObject();
+    assertEquals(10, body.getLong(TokenRouter.EXPIRES_IN_KEY).longValue());
+    assertEquals("user", tokenService.verify(body.getString(TokenRouter.TOKEN_KEY)).getLeft());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testLoginUnauthorised() {
+    TokenRouter target = new TokenRouter(new TokenService("secret".getBytes(), 1000));
+    RoutingContext routingContext = createContext();
+
+    target.handleLogin(routingContext).blockingAwait();
+
+    verify(routingContext).fail(StatusCode.UNAUTHORISED.getStatusCode());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testLoginWithToken() {
+    TokenService tokenService = new TokenService("secret".getBytes(), 10_000);
+    TokenRouter target = new TokenRouter(tokenService);
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getHeader(AUTH_HEADER)).thenReturn(BEARER_PREFIX + tokenService.issue("user", UserType.USER));
+    when(routingContext.request().getHeader(USERNAME_HEADER)).thenReturn("user");
+    when(routingContext.request().getHeader(USER_TYPE_HEADER)).thenReturn("user");
+
+    target.handleLogin(routingContext).blockingAwait();
+
+    verify(routingContext).fail(StatusCode.UNAUTHORISED.getStatusCode());
+  }
+
+  @Test(timeout = 60_000L)
+  public void testLogout() {
+    TokenService tokenService = new TokenService("secret".getBytes(), 10_000);
+    TokenRouter target = new TokenRouter(tokenService);
+    String token = tokenService.issue("user", UserType.USER);
+    RoutingContext routingContext = createContext();
+    when(routingContext.request().getHeader(AUTH_HEADER)).thenReturn(BEARER_PREFIX + token);
+
+    assertNotNull(tokenService.verify(token));
+    target.handleLogout(routingContext).blockingAwait();
+
+    verify(routingContext.response()).setStatusCode(StatusCode.NO_CONTENT.getStatusCode());
+    assertNull(tokenService.verify(token));
+  }
+}
@@ -50,6 +50,7 @@ public class UserRouterTest {
     vertx = Vertx.vertx();
     vertx.fileSystem()
         .rxWriteFile(PASSWORDS_FILE, Buffer.newInstance(new JsonObject().put(USERS_KEY, new JsonObject()).toBuffer()))
+        .andThen(Storages.USER_STORAGE.reload())
         .andThen(Completable.fromAction(async::complete))
         .subscribe();
   }